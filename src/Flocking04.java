@@ -1479,7 +1479,7 @@ public class Flocking04 extends PApplet {
 		PVector btn4 = new PVector(width - 30, 30);
 		
 		@Override
-		public void videoCallback(Capture video) {
+		public void videoCallback(PImage video) {
 			// TODO fix flickering -- 
 			/*
 			// this works but requires video to be showing 
@@ -1500,12 +1500,12 @@ public class Flocking04 extends PApplet {
 		}
 		
 		@Override
-		public void vectorCallback(Capture video) {
+		public void vectorCallback(PImage video) {
 			// method stub. OpticalFlowMaker instance will draw the vector field for us.
 		}
 
 		@Override
-		public void actionCallback(Capture video) {
+		public void actionCallback(PImage video) {
 			if (skipAction) return;
 			// trigger call to setSeparation() by setting the number box, avoid recursion
 			Numberbox n1 = (Numberbox) controlP5.getController("setSeparation");
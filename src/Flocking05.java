@@ -2066,7 +2066,7 @@ public class Flocking05 extends PApplet {
 		PVector btn4 = new PVector(width - inset, inset);
 		
 		@Override
-		public void videoCallback(Capture video) {
+		public void videoCallback(PImage video) {
 			// get the video image, give it an alpha channel and draw it on our display
 			background(pg);
 			PImage img = loadImageAlpha(video.get(), 80);
@@ -2077,12 +2077,12 @@ public class Flocking05 extends PApplet {
 		}
 
 		@Override
-		public void vectorCallback(Capture video) {
+		public void vectorCallback(PImage video) {
 			drawVectorLines();
 		}
 		
 		@Override
-		public void actionCallback(Capture video) {
+		public void actionCallback(PImage video) {
 			if (skipAction) return;
 			// trigger call to setSeparation() by setting the number box, avoid recursion
 			Numberbox n1 = (Numberbox) controlP5.getController("setSeparation");
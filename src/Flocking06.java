@@ -86,9 +86,14 @@ public class Flocking06 extends PApplet {
 	//		Press 'q' or 'Q' to change location rule of new boids
 	//		Press 'a' or 'A' to step through Boid State menu
 	//		Press '/' to show or hide obstacles
+	//		Press 'z' to run the flock on its own simulation thread (boids follow flow but don't draw trails)
+	//		Press 'u' to step the flock at a fixed rate (simRate), independent of the frame rate
+	//		Press '3' to draw boids from prerendered sprites, or as shapes
 	//		// Video-tracking/Optical flow controls:
 	//		Press 'f' to show or hide flow lines
 	//		Press 'i' to show or hide video image
+	//		Press '1' to compute optical flow on a worker thread, or in draw()
+	//		Press '2' to solve optical flow only where the image changed, or everywhere
 	//		Press 'h' to show this help message 
 	//  See the keyPressed() method for a few more commands
 	
@@ -121,6 +126,12 @@ public class Flocking06 extends PApplet {
 	Flock flock;
 	boolean flockIsDrawing;
 	boolean flockIsDisplaying = true;
+	// draw current trails into trails a segment per frame, instead of redrawing them whole every frame
+	boolean isIncrementalTrails = true;
+	// transparent layer for current trails, composited over pg and glitchImage, when isIncrementalTrails is true
+	PGraphics trails;
+	// the flock's boids draw their current trails into trails through trailLayer
+	TrailLayer trailLayer;
 	RandUtil rando;
 	int targetHue = 60;
 	BoidCallbackINF responder;
@@ -172,6 +183,8 @@ public class Flocking06 extends PApplet {
 	BoidPlacement placement = BoidPlacement.RANDOM;
 	ArrayList<BoidState> boidStateList;
 	OpticalFlower optical;
+	// scales video frames to the display with alpha, reusing one image
+	VideoOverlay videoOverlay;
 	int videoWidth;
 	int videoHeight;
 	int displayWidth;
@@ -180,9 +193,34 @@ public class Flocking06 extends PApplet {
 	boolean isAutoRun = true;
 	int selectedBoidState = 0;
 	PImage glitchImage;
+	// pg with glitchImage over it, recomposited where pg changes
+	LayerCompositor layers;
 	BlueStyle obstacles;
+	/** compute optical flow from luma only, which is enough to steer boids and about twice as fast, at the next setupVideo() */
+	boolean isLumaFlow = false;
+	/** compute optical flow on a worker thread ('1' key), draw() only picks up the latest flow */
+	boolean isAsyncFlow = false;
+	/** only solve optical flow where something in front of the camera moved ('2' key) */
+	boolean isSparseFlow = false;
+	/** file of the last optical flow recording ('[' key), played back with the ']' key */
+	String flowRecording;
 	/** threshold at which flow vector magnitude squared triggers drawing */
 	float flowMagThresh = 100;
+	/** scratch array for nearest points on the torus, see Boid.torusPoint() */
+	float[] closestImage = new float[2];
+	/** scratch vector for flow at a boid's location, see evitar() */
+	PVector flowForce = new PVector();
+	/** when true, the flock steps on its own thread and draw() only renders its latest snapshot */
+	boolean isSimThread = false;
+	/** simulation thread, runs a FlockState copied from flock when isSimThread is true */
+	FlockSimulation simulation;
+	FlockRenderer stateRenderer;
+	/** per-frame forces for the simulation thread, applied before each of its steps, see postSimulationForces() */
+	FlockForces simForces;
+	/** draw boids by blitting prerendered sprites from a BoidSpriteAtlas ('3' key) instead of as shapes */
+	boolean isSpriteBoids = false;
+	/** simulation steps per second on the simulation thread or with a fixed timestep ('u' key) */
+	float simRate = 30;
 	
 	String filePath = "/Users/paulhz/Desktop/Eclipse_output/boids";
 	String basename = "vtboids";
@@ -220,6 +258,7 @@ public class Flocking06 extends PApplet {
 		rando = new RandUtil();                // random number utility
 		responder = new Responder();           // callback object for TurtleBoid instances
 		flock = new Flock();                   // Add an initial set of boids into the system
+		flock.setRenderer(newBoidRenderer());  // draw all the boids at once, each boid draws itself if null
 		flockIsDrawing = true;
 		flockIsDisplaying = true;
 		initBoidStateList();                   // create up a menu of different sets of cohesion, separation, and alignment values
@@ -254,6 +293,13 @@ public class Flocking06 extends PApplet {
 		avoidance = -1.25f;
 		glitchImage = loadImage("../clouds.jpg");
 		glitchImage = loadImageAlpha(glitchImage, 127);
+		layers = new LayerCompositor(this, pg, glitchImage);
+		if (isIncrementalTrails) {
+			trails = createGraphics(width, height);
+			layers.setTop(trails);
+			trailLayer = new TrailLayer(trails, layers);
+			flock.setTrailLayer(trailLayer);
+		}
 		igno = new IgnoCodeLib(this);
 	}
 	
@@ -277,10 +323,10 @@ public class Flocking06 extends PApplet {
 		// optical = new OpticalFlower(this, width, height, 20, 0.5f, Capture.list()[0]);
 		// optical = new OpticalFlower(this, width, height, 20, 0.5f, "Built-in iSight");
 		if (null == optical) {
-			optical = new OpticalFlower(this, w, h, fps, grid, timespan, device);
+			optical = new OpticalFlower(this, w, h, fps, grid, timespan, device, isLumaFlow);
 		}
 		else {
-			optical.setVideoParams(w, h, fps, grid, timespan, device);
+			optical.setVideoParams(w, h, fps, grid, timespan, device, isLumaFlow);
 		}
 		isVideoReady = optical.init();
 		if (!isVideoReady) {
@@ -299,6 +345,10 @@ public class Flocking06 extends PApplet {
 			}
 			videoResponder = new VideoResponder();
 			optical.setResponder(videoResponder);
+			// split optical flow sweeps across cores when there are several
+			optical.setParallel(Runtime.getRuntime().availableProcessors() > 1);
+			optical.setSparse(isSparseFlow);
+			optical.setAsync(isAsyncFlow);
 		}
 	}
 	
@@ -750,11 +800,7 @@ public class Flocking06 extends PApplet {
 	 */
 	public void initMask() {
 		 maskImage = this.createImage(width, height, ARGB);
-		 int maskColor = color(64, 64, 64, 64);
-		 maskImage.loadPixels();
-		 for (int i = 0; i < width * height; i++) {
-			 maskImage.pixels[i] = maskColor;
-		 }
+		 ImageUtil.fill(maskImage, color(64, 64, 64, 64));
 	 }
 	
 	/**
@@ -783,9 +829,16 @@ public class Flocking06 extends PApplet {
 		println("Press 'q' or 'Q' to change location rule of new boids");
 		println("Press 'a' or 'A' to step through Boid State menu");
 		println("Press '/' to show or hide obstacles");
+		println("Press 'z' to run the flock on its own simulation thread");
+		println("Press 'u' to step the flock at a fixed rate, independent of the frame rate");
+		println("Press '3' to draw boids from prerendered sprites, or as shapes");
+		println("Press '[' to start or stop recording optical flow");
+		println("Press ']' to play back the last optical flow recording, or go back to live video");
 		// Video-tracking/Optical flow controls:
 		println("Press 'f' to show or hide flow lines");
 		println("Press 'i' to show or hide video image");
+		println("Press '1' to compute optical flow on a worker thread, or in draw()");
+		println("Press '2' to solve optical flow only where the image changed, or everywhere");
 		println("Press 'h' to show this help message"); 
 	}
 
@@ -793,19 +846,26 @@ public class Flocking06 extends PApplet {
 	public void draw() {
 		// if isPaused, exit loop instead of calling noLoop() so P5 and other calls can still propagate
 		if (isPaused) return;
+		WorldBounds world = flock.getWorld();
+		if (null != world && (width != world.getWidth() || height != world.getHeight())) {
+			// all the boids share the flock's world, so they wrap at the new edges
+			flock.setWorldSize(width, height);
+		}
 		if (!isShowVideo) {
-			// already done
-			// PImage img = loadImageAlpha(glitchImage, 127);
-			if (width == pg.width && height == pg.height) {
-				background(pg);
-			}
-			else {
+			// pg with glitchImage over it, composited again only where pg changed
+			if (width != pg.width || height != pg.height) {
 				pg.resize(width, height);
-				background(pg);
+				layers.setBase(pg);
+				if (null != trails) {
+					trails.resize(width, height);
+					layers.setTop(trails);
+					trailLayer.markStale();
+				}
 				println("width = "+ width +", height = "+ height);
 				println("pg.width = "+ pg.width +", pg.height = "+ pg.height);
 			}
-			image(glitchImage, 0, 0, width, height);
+			if (null != trailLayer) trailLayer.refresh(flock.getBoids());
+			background(layers.update());
 		}
 		if (isVideoReady) {
 			optical.flow();
@@ -821,8 +881,139 @@ public class Flocking06 extends PApplet {
 				bez.draw();
 			}
 		}
+		if (isSimThread) {
+			runSimulation();
+			return;
+		}
 		runBoids();
 	}
+
+	/**
+	 * Does for the simulation thread what runBoids() does for the flock: sends it this frame's forces
+	 * from wind, mouse and optical flow, renders its latest snapshot, fades the background and runs autorun.
+	 */
+	public void runSimulation() {
+		FlockSnapshot snap = simulation.latest();
+		postSimulationForces(snap);
+		if (isShowBoids) stateRenderer.render(this, snap);
+		advanceWind();
+		fadeBackground();
+		if (isAutoRun && frameCount % 480 == 0) {
+			// autorun changes the flock, so bring it back from the simulation thread and send it out again
+			haltSimulation();
+			autoRun();
+			launchSimulation();
+		}
+	}
+
+	/**
+	 * Calculates wind, optical flow and blue point forces at the locations in a snapshot, on the animation
+	 * thread, as runBoids() and evitar() do for the flock, and publishes them with mouse attraction to
+	 * the simulation thread, which applies them at every step until the next frame replaces them.
+	 * @param snap   the latest snapshot from the simulation thread
+	 */
+	public void postSimulationForces(FlockSnapshot snap) {
+		int n = snap.size();
+		simForces.begin(n);
+		if (isWindy && n > 0) {
+			PVector v = windVector();
+			float x0 = -width/2;
+			float y0 = -height/2;
+			for (int i = 0; i < n; i++) {
+				float dx = snap.getX(i) - x0;
+				float dy = snap.getY(i) - y0;
+				// as in blowWind(), the wind weakens from boid to boid
+				v.mult(0.90f + 1.0f / (dx * dx + dy * dy));
+				simForces.addForce(i, v.x, v.y);
+			}
+		}
+		if (isVideoReady) {
+			for (int i = 0; i < n; i++) {
+				PVector vec = optical.getFlow(snap.getX(i), snap.getY(i), flowForce);
+				simForces.addForce(i, vec.x, vec.y);
+			}
+			// as in evitar(), boids near a blue point steer away from it
+			if (isUseBlue) {
+				WorldBounds world = flock.getWorld();
+				for (int i = 0; i < n; i++) {
+					float x = snap.getX(i);
+					float y = snap.getY(i);
+					for (PVector vec : blueVectors) {
+						float spacer = rando.randomElement(blueForceValues);
+						world.torusPoint(x, y, vec.x, vec.y, closestImage);
+						float dx = closestImage[0] - x;
+						float dy = closestImage[1] - y;
+						if (dx * dx + dy * dy < spacer * spacer) {
+							simForces.avoid(i, closestImage[0], closestImage[1], avoidance);
+						}
+					}
+				}
+			}
+		}
+		if (mousePressed && !controlP5.isVisible()) {
+			// negative avoidance force = attraction
+			simForces.avoidAll(mouseX, mouseY, -0.5f);
+		}
+		simForces.publish();
+	}
+
+	/**
+	 * Copies the flock into a FlockState and starts stepping it on a FlockSimulation thread,
+	 * independent of the frame rate. While it runs, draw() renders the latest snapshot and sends
+	 * the simulation per-frame forces, see runSimulation(), and TurtleBoids neither move nor draw.
+	 */
+	public void startSimulation() {
+		if (isSimThread) return;
+		stopDrawing();
+		launchSimulation();
+		isSimThread = true;
+	}
+
+	/**
+	 * @return a BoidSpriteAtlas if isSpriteBoids is true, otherwise a FlockRenderer that draws boids as shapes
+	 */
+	FlockRenderer newBoidRenderer() {
+		if (isSpriteBoids) return new BoidSpriteAtlas();
+		return new FlockRenderer();
+	}
+
+	/**
+	 * Copies the flock into a FlockState and starts a FlockSimulation thread for it.
+	 */
+	void launchSimulation() {
+		FlockState state = new FlockState(new WorldBounds(width, height), flock.getBoids().size());
+		state.load(flock.getBoids());
+		state.setMapToTorus(Boid.isMapToTorus());
+		simulation = new FlockSimulation(state, simRate);
+		simForces = new FlockForces(state);
+		simulation.setStepCommand(simForces);
+		if (null == stateRenderer) stateRenderer = newBoidRenderer();
+		simulation.start();
+	}
+
+	/**
+	 * Stops the simulation thread and copies locations and velocities back into the flock.
+	 */
+	public void stopSimulation() {
+		if (!isSimThread) return;
+		haltSimulation();
+		isSimThread = false;
+		if (flockIsDrawing) startDrawing();
+	}
+
+	/**
+	 * Stops the simulation thread and copies its FlockState back into the flock.
+	 */
+	void haltSimulation() {
+		simulation.stop();
+		FlockState state = simulation.getState();
+		ArrayList<Boid> boids = flock.getBoids();
+		for (int i = 0; i < state.size() && i < boids.size(); i++) {
+			Boid tBoid = boids.get(i);
+			tBoid.getLoc().set(state.getX(i), state.getY(i));
+			tBoid.getVel().set(state.getVx(i), state.getVy(i));
+		}
+	}
 	
 	// @TODO There's a lot of extraneous code in runBoids(), experiments that haven't been pulled or broken out yet.
 	/**
@@ -832,63 +1023,89 @@ public class Flocking06 extends PApplet {
 		if (isWindy) {
 			Boid boid = flock.getBoids().get(0);
 			if (null != boid) {
-				PVector v = new PVector(cos(t), sin(t));
-				v.mult((float) rando.gauss(2.0, 0.1));
-				PVector shake = new PVector(random(-1, 1), random(-1, 1));
-				shake.mult((float) rando.gauss(2, 0.2));
-				v.add(shake);
-				v.mult(windspeed);
-				blowWind(-width/2, -height/2, v);
+				blowWind(-width/2, -height/2, windVector());
 			}
 		}
 		if (mousePressed && !controlP5.isVisible()) {
-			PVector vec = new PVector(mouseX, mouseY);
 			for (Boid tBoid : flock.getBoids()) {
-				PVector closestImage = tBoid.nearestPointOnTorus(tBoid.getLoc(), vec);
+				PVector loc = tBoid.getLoc();
+				tBoid.torusPoint(loc.x, loc.y, mouseX, mouseY, closestImage);
 				// negative avoidance force = attraction
-				tBoid.avoid(closestImage, -0.5f);
+				tBoid.avoid(closestImage[0], closestImage[1], -0.5f);
 				// tBoid.arrive(new PVector(mouseX, mouseY));
 			}
 		}
 		flock.run();
-		t += inc;
-		if (divisor < 4096 && isWindy) divisor++;
+		advanceWind();
 		evitar();
 		// deleted dashed line code here
-		inc = PApplet.PI/divisor;
 		// step++;
-		// fade the background
+		fadeBackground();
+		if (isAutoRun && frameCount % 480 == 0) {
+			autoRun();
+		}
+	}
+
+	/**
+	 * @return a wind force for this frame, turning with t and shaken at random
+	 */
+	public PVector windVector() {
+		PVector v = new PVector(cos(t), sin(t));
+		v.mult((float) rando.gauss(2.0, 0.1));
+		PVector shake = new PVector(random(-1, 1), random(-1, 1));
+		shake.mult((float) rando.gauss(2, 0.2));
+		v.add(shake);
+		v.mult(windspeed);
+		return v;
+	}
+
+	/**
+	 * Turns the wind direction a step, more slowly over time while it is windy.
+	 */
+	public void advanceWind() {
+		t += inc;
+		if (divisor < 4096 && isWindy) divisor++;
+		inc = PApplet.PI/divisor;
+	}
+
+	/**
+	 * Fades the background every 30 frames.
+	 */
+	public void fadeBackground() {
 		if (frameCount % 30 == 0) {
 			pg.fill(255, 10);
 			pg.noStroke();
 			pg.rect(0, 0, width, height);
+			layers.markDirty();
 		}
-		// autorun switches state from time to time
-		// TODO give autorun a separate method
-		if (isAutoRun && frameCount % 480 == 0) {
-			float rand = random(0,1);
+	}
+
+	/**
+	 * Switches state at random, called from time to time when isAutoRun is true.
+	 */
+	public void autoRun() {
+		float rand = random(0,1);
+		if (rand > 0.5f) {
+			erase();
 			if (rand > 0.5f) {
-				erase();
-				if (rand > 0.5f) {
-					placement = BoidPlacement.values()[rando.randomInRange(0, BoidPlacement.values().length - 1)];
-					println("placement = "+ placement.toString());
-					newBoids();
-				}
-				assignBoidState(rando.randomInRange(0, boidStateList.size() - 1), 1f);
+				placement = BoidPlacement.values()[rando.randomInRange(0, BoidPlacement.values().length - 1)];
+				println("placement = "+ placement.toString());
+				newBoids();
 			}
-			else if (rand < 0.5f) {
-				assignBoidState(rando.randomInRange(0, boidStateList.size() - 1), 1f);
+			assignBoidState(rando.randomInRange(0, boidStateList.size() - 1), 1f);
+		}
+		else if (rand < 0.5f) {
+			assignBoidState(rando.randomInRange(0, boidStateList.size() - 1), 1f);
+		}
+		else if (rand < 0.33) {
+			if (totalBoids > meanBoids) {
+				subtractBoids();
 			}
-			else if (rand < 0.33) {
-				if (totalBoids > meanBoids) {
-					subtractBoids();
-				}
-				else if (totalBoids < meanBoids) {
-					addBoids();
-				}
+			else if (totalBoids < meanBoids) {
+				addBoids();
 			}
-			adjustFlock();
 		}
+		adjustFlock();
 	}
 	
 	/**
@@ -899,7 +1116,8 @@ public class Flocking06 extends PApplet {
 		if (!isVideoReady) return;
 		// add in the vectors from video motion flow
 		for (Boid tBoid : flock.getBoids()) {
-			PVector vec = optical.getFlow(tBoid.getLoc());
+			PVector loc = tBoid.getLoc();
+			PVector vec = optical.getFlow(loc.x, loc.y, flowForce);
 			// tBoid.avoid(vec, avoidance);
 			tBoid.applyForce(vec);
 			// activate drawing if vec magnitude exceeds threshold
@@ -912,11 +1130,14 @@ public class Flocking06 extends PApplet {
 		}
 		if (isUseBlue) {
 			for (Boid tBoid : flock.getBoids()) {
+				PVector loc = tBoid.getLoc();
 				for (PVector vec : blueVectors) {
 					float spacer = rando.randomElement(blueForceValues);
-					PVector closestImage = tBoid.nearestPointOnTorus(tBoid.getLoc(), vec);
-					if (PVector.dist(tBoid.getLoc(), closestImage) < spacer) {
-						tBoid.avoid(closestImage, avoidance);
+					tBoid.torusPoint(loc.x, loc.y, vec.x, vec.y, closestImage);
+					float dx = closestImage[0] - loc.x;
+					float dy = closestImage[1] - loc.y;
+					if (dx * dx + dy * dy < spacer * spacer) {
+						tBoid.avoid(closestImage[0], closestImage[1], avoidance);
 					}
 				}
 			}
@@ -1076,6 +1297,14 @@ public class Flocking06 extends PApplet {
 		else if (key == 't' || key == 'T') {
 			boolean mapToTorus = !Boid.isMapToTorus();
 			Boid.setMapToTorus(mapToTorus);
+			if (isSimThread) {
+				final boolean torus = mapToTorus;
+				simulation.post(new Runnable() {
+					public void run() {
+						simulation.getState().setMapToTorus(torus);
+					}
+				});
+			}
 			if (mapToTorus) println("Mapping to torus");
 			else println("Mapping to plane");
 		}
@@ -1172,8 +1401,69 @@ public class Flocking06 extends PApplet {
 			isUseBlue = !isUseBlue;
 			println ("isUseBlue = "+ isUseBlue);
 		}
+		else if (key == 'u' || key == 'U') {
+			if (null == flock.getTimestep()) flock.setTimestep(new FixedTimestep(simRate));
+			else flock.setTimestep(null);
+			println("fixed timestep is "+ (null != flock.getTimestep()));
+		}
+		else if (key == 'z' || key == 'Z') {
+			if (isSimThread) stopSimulation();
+			else startSimulation();
+			println("simulation thread is "+ isSimThread);
+		}
+		else if (key == '[') {
+			if (!isVideoReady || null != optical.getReplayer()) return;
+			if (optical.isRecording()) {
+				optical.stopRecording();
+				println("-- stopped recording optical flow to "+ flowRecording);
+			}
+			else {
+				flowRecording = filePath +"/flow_"+ getTimestamp() +".flow";
+				if (optical.startRecording(flowRecording)) println("-- recording optical flow to "+ flowRecording);
+			}
+		}
+		else if (key == ']') {
+			toggleFlowReplay();
+		}
+		else if (key == '1') {
+			isAsyncFlow = !isAsyncFlow;
+			if (isVideoReady) optical.setAsync(isAsyncFlow);
+			println("asynchronous optical flow is "+ isAsyncFlow);
+		}
+		else if (key == '2') {
+			isSparseFlow = !isSparseFlow;
+			if (isVideoReady) optical.setSparse(isSparseFlow);
+			println("sparse optical flow is "+ isSparseFlow);
+		}
+		else if (key == '3') {
+			isSpriteBoids = !isSpriteBoids;
+			flock.setRenderer(newBoidRenderer());
+			if (null != stateRenderer) stateRenderer = newBoidRenderer();
+			println("sprite boids are "+ isSpriteBoids);
+		}
 	}
 	
+	/**
+	 * Switches optical flow between live video and playback of the last recording, see OpticalFlower.setReplayer().
+	 */
+	public void toggleFlowReplay() {
+		if (null == optical) return;
+		if (null != optical.getReplayer()) {
+			optical.setReplayer(null);
+			isVideoReady = optical.init();
+			println("-- optical flow from live video: "+ isVideoReady);
+		}
+		else if (null != flowRecording) {
+			optical.stopRecording();
+			optical.setReplayer(new FlowReplayer(flowRecording));
+			isVideoReady = optical.init();
+			// there is no video image to draw during playback
+			isShowVideo = false;
+			optical.hideImage();
+			println("-- optical flow from "+ flowRecording +": "+ isVideoReady);
+		}
+	}
+
 	/**
 	 * Detects Caps Lock state. We use Caps Lock state to switch between audio and graphics command sets. 
 	 * @return true if Caps Lock is down, false otherwise.
@@ -1211,6 +1501,8 @@ public class Flocking06 extends PApplet {
 	 */
 	public void stopDrawing() {
 		drawCurrentOffscreen(pg);
+		// the current trails are in pg now
+		if (null != trailLayer) trailLayer.markStale();
 		GroupComponent gatherBoids = new GroupComponent(this);
 		for (Boid tBoid : flock.getBoids()) {
 			Turtle t = ((TurtleBoid) tBoid).getTurtle();
@@ -1256,6 +1548,7 @@ public class Flocking06 extends PApplet {
 			}
 		}		  
 		pg.endDraw();
+		if (null != layers) layers.markDirty();
 	}
 
 	/**
@@ -1295,6 +1588,7 @@ public class Flocking06 extends PApplet {
 			}
 		}		  
 		pg.endDraw();
+		if (null != layers) layers.markDirty();
 		// println("offscreen done");
 	}
 	
@@ -1885,6 +2179,8 @@ public class Flocking06 extends PApplet {
 	 * Subtracts numberOfBoids boids from flock.
 	 */
 	public void subtractBoids() {
+		// the trails of the boids we remove are still in the trail layer
+		if (null != trailLayer) trailLayer.markStale();
 		ArrayList<Boid> boids = flock.getBoids();
 		for (int i = 0; i < numberOfBoids; i++) {
 			totalBoids -= 1;
@@ -1902,6 +2198,7 @@ public class Flocking06 extends PApplet {
 	public void newBoids() {
 		ArrayList<Boid> boids = flock.getBoids();
 		boids.clear();
+		if (null != trailLayer) trailLayer.markStale();
 //		for (int i = 0; i < totalBoids; i++) {
 //			addOneBoid(random(0, width), random(0, height));
 //		}		
@@ -1917,6 +2214,7 @@ public class Flocking06 extends PApplet {
 		for (Boid tBoid : flock.getBoids()) {
 			((TurtleBoid) tBoid).getTurtle().clear();
 		}
+		if (null != trailLayer) trailLayer.markStale();
 		bgErase();
 	}
 	
@@ -1970,6 +2268,14 @@ public class Flocking06 extends PApplet {
 			if (cohesion > 0) tBoid.setCohesionDistance(cohesion);
 			else tBoid.setCohesionDistance(coh);
 		}
+		if (isSimThread) {
+			final float separation = sep, alignment = align, cohesion = coh;
+			simulation.post(new Runnable() {
+				public void run() {
+					simulation.getState().setDistances(separation, alignment, cohesion);
+				}
+			});
+		}
 	}
 
 	/**
@@ -2007,19 +2313,13 @@ public class Flocking06 extends PApplet {
 	}
 	
 	/**
-	 * Copy an image pixel by pixel, test code to work around problems in Processing 2.1 with PImage.get.
-	 * @param image   image to copy
+	 * Sets the alpha channel of an image, in place.
+	 * @param image   image to change
+	 * @param alpha   alpha 0..255
 	 * @return        the image submitted with apha channel set to desired value
 	 */
 	public PImage loadImageAlpha(PImage image, int alpha) {
-		int i = 0;
-		image.loadPixels();
-		for (i = 0; i < image.pixels.length; i++) {
-			int[] rgb = rgbComponents(image.pixels[i]);
-			image.pixels[i] = alpha << 24 | rgb[0] << 16 | rgb[1] << 8 | rgb[2];
-		}
-		image.updatePixels();
-		return image;
+		return ImageUtil.setAlpha(image, alpha);
 	}
 	
 	/**
@@ -2090,6 +2390,10 @@ public class Flocking06 extends PApplet {
 				pg.beginDraw();
 				bez.draw(pg);
 				pg.endDraw();
+				// only recomposite the bounds of the trail, widened by its stroke
+				BezRectangle r = bez.boundsRect();
+				float pad = bez.weight() + 1;
+				layers.markDirty(r.getLeft() - pad, r.getTop() - pad, r.getRight() + pad, r.getBottom() + pad);
 			}
 			// pen goes down if start on edge is set
 			if (beginOnEdge) t.penDown();
@@ -2135,23 +2439,30 @@ public class Flocking06 extends PApplet {
 		boolean isMaxState = false;
 
 		@Override
-		public void videoCallback(Capture video) {
-			// get the video image, give it an alpha channel and draw it on our display
+		public void videoCallback(PImage video) {
+			// scale the video image to our display with an alpha channel and draw it,
+			// without copying the frame or allocating a new image
 			background(pg);
-			PImage img = loadImageAlpha(video.get(), 80);
-			// we love pixels, can't call noSMooth outside setup() in Processing 3.x
-			// noSmooth();
-			image(img, 0, 0, width, height);
-			smooth();
+			if (null == videoOverlay) {
+				videoOverlay = new VideoOverlay(Flocking06.this, width, height, 80);
+				videoOverlay.setParallel(Runtime.getRuntime().availableProcessors() > 1);
+			}
+			videoOverlay.setSize(width, height);
+			// we love pixels: the overlay is scaled nearest neighbor and drawn at its own size
+			image(videoOverlay.update(video), 0, 0);
+			if (null != trails) {
+				trailLayer.refresh(flock.getBoids());
+				image(trails, 0, 0);
+			}
 		}
 
 		@Override
-		public void vectorCallback(Capture video) {
+		public void vectorCallback(PImage video) {
 			drawVectorLines();
 		}
 		
 		@Override
-		public void actionCallback(Capture video) {
+		public void actionCallback(PImage video) {
 			if (skipAction) return;
 			float flowRate = optical.getTotalFlowSquareMagAv();
 			if (flowRate < minTrigger && !isMinState) {
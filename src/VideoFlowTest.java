@@ -269,7 +269,7 @@ public class VideoFlowTest extends PApplet {
 		int evtDebounce = 120;
 		
 		@Override
-		public void videoCallback(Capture video) {
+		public void videoCallback(PImage video) {
 			// fill the background
 			background(pg);
 			// get the video image, give it an alpha channel and draw it on our display
@@ -279,12 +279,12 @@ public class VideoFlowTest extends PApplet {
 		}
 
 		@Override
-		public void vectorCallback(Capture video) {
+		public void vectorCallback(PImage video) {
 			drawVectorLines(pg);
 		}
 		
 		@Override
-		public void actionCallback(Capture video) {
+		public void actionCallback(PImage video) {
 			if (skipAction) return;
 	
 		}
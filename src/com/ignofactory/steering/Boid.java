@@ -8,8 +8,11 @@ package com.ignofactory.steering;
 // "Nearest points" are found on a topological torus when mapToTorus is true (the default)
 // Lines will be drawn between all boids within the cohesionDistance if drawCohesionLines is true (default = false)
 // This works best when there are few boids. Boids' visibility can be toggled on and off by setting isVisible.
+// Boids constructed with a WorldBounds and a Random instead of a PApplet can be stepped without a display:
+// flock(), update() and borders() use only the WorldBounds, and render() does nothing.
 
 import java.util.ArrayList;
+import java.util.Random;
 import net.paulhertz.aifile.*;
 import processing.core.*;
 
@@ -17,11 +20,15 @@ public class Boid {
 	PVector loc;
 	PVector vel;
 	PVector acc;
+	/** location before the last call to update(), for drawing between steps, see render(float) */
+	PVector prevLoc;
 	float r;						// size factor
 	float maxforce;    	// Maximum steering force
 	float maxspeed;    	// Maximum speed
 	float mass = 1.0f;
 	PApplet parent;
+	/** bounds of the world the boid lives in, used for wraparound and torus mapping */
+	WorldBounds world;
 	float separationWeight = 1.5f;
 	float cohesionWeight = 1.0f;
 	float alignmentWeight = 1.0f;
@@ -31,15 +38,18 @@ public class Boid {
 	float alignmentDistance = 80.0f;
 	/** radius to center of flock  */
 	float cohesionDistance = 120.f;
-	// vars for calculating distances on torus
-	protected float halfW;
-	protected float halfH;
 	/** code of next location on toroidal surface */
 	public int outcode;
 	/** is boid visible? */
 	boolean isVisible = true;
 	static boolean mapToTorus = true;
 	static boolean drawCohesionLines = false;
+	// scratch storage for steering, so that steady-state flocking allocates nothing
+	protected float[] point = new float[2];
+	protected PVector sepForce = new PVector();
+	protected PVector aliForce = new PVector();
+	protected PVector cohForce = new PVector();
+	protected PVector steerForce = new PVector();
 
 	/**
 	 * @param parent   a PApplet instance
@@ -49,11 +59,31 @@ public class Boid {
 	 */
 	public Boid(PApplet parent, PVector l, float ms, float mf) {
 		this.parent = parent;
-		halfW = parent.width/2.0f;
-		halfH = parent.height/2.0f;
+		this.world = new WorldBounds(parent.width, parent.height);
 		acc = new PVector(0,0);
 		vel = new PVector(parent.random(-1,1),parent.random(-1,1));
 		loc = l.get();
+		prevLoc = l.get();
+		r = 2.0f;
+		maxspeed = ms;
+		maxforce = mf;
+	}
+
+	/**
+	 * Creates a boid that needs no PApplet, for simulations without a display. 
+	 * render() does nothing and cohesion lines are not drawn.
+	 * @param world    bounds of the world the boid lives in, may be shared by many boids
+	 * @param rand     random number generator for the initial velocity
+	 * @param l        location of Boid instance
+	 * @param ms       maximum speed
+	 * @param mf       maximum force
+	 */
+	public Boid(WorldBounds world, Random rand, PVector l, float ms, float mf) {
+		this.world = world;
+		acc = new PVector(0,0);
+		vel = new PVector(rand.nextFloat() * 2 - 1, rand.nextFloat() * 2 - 1);
+		loc = l.get();
+		prevLoc = l.get();
 		r = 2.0f;
 		maxspeed = ms;
 		maxforce = mf;
@@ -70,11 +100,75 @@ public class Boid {
 		render();
 	}
 
+	/**
+	 * Steps the boid without drawing it, by calling flock(), update() and borders(). 
+	 * Used when several steps are simulated for each frame, see Flock.setTimestep().
+	 * @param boids   an array of Boids in the flock
+	 */
+	public void step(ArrayList<Boid> boids) {
+		flock(boids);
+		update();
+		borders();
+	}
+
 	// We accumulate a new acceleration each time based on three rules
+	// The three rules are computed in a single pass over the flock, with the same results
+	// as calling separate(), align() and cohesion() one after another.
+	// No objects are allocated: torus mapping and steering write into scratch storage owned by the boid.
 	public void flock(ArrayList<Boid> boids) {
-		PVector sep = separate(boids);   // Separation
-		PVector ali = align(boids);      // Alignment
-		PVector coh = cohesion(boids);   // Cohesion
+		float sepX = 0, sepY = 0;
+		float aliX = 0, aliY = 0;
+		float cohX = 0, cohY = 0;
+		int sepCount = 0, aliCount = 0, cohCount = 0;
+		float[] mapped = point;
+		for (int i = 0 ; i < boids.size(); i++) {
+			Boid other = boids.get(i);
+			// the other's position, or its nearest position on a torus
+			mappedPoint(other.loc, mapped);
+			// vector pointing away from the other, and its length, computed once for all three rules
+			float dx = loc.x - mapped[0];
+			float dy = loc.y - mapped[1];
+			float d = (float) Math.sqrt(dx * dx + dy * dy);
+			// d == 0 when you are yourself
+			if (d <= 0) continue;
+			if (d < separationDistance) {
+				// normalize and weight by distance
+				sepX += (dx / d) / d;
+				sepY += (dy / d) / d;
+				sepCount++;
+			}
+			if (d < alignmentDistance) {
+				aliX += other.vel.x;
+				aliY += other.vel.y;
+				aliCount++;
+			}
+			if (d < cohesionDistance) {
+				if (drawCohesionLines && null != parent) {
+					// draw lines to boids that contribute to sum
+					parent.pushStyle();
+					parent.stroke(192);
+					parent.line(loc.x, loc.y, mapped[0], mapped[1]);
+					parent.popStyle();
+				}
+				cohX += mapped[0];
+				cohY += mapped[1];
+				cohCount++;
+			}
+		}
+		// Separation
+		PVector sep = sepForce.set(sepX, sepY, 0);
+		if (sepCount > 0) sep.div((float)sepCount);
+		reynolds(sep);
+		// Alignment
+		PVector ali = aliForce.set(aliX, aliY, 0);
+		if (aliCount > 0) ali.div((float)aliCount);
+		reynolds(ali);
+		// Cohesion
+		PVector coh = cohForce.set(cohX, cohY, 0);
+		if (cohCount > 0) {
+			coh.div((float)cohCount);
+			steer(coh, false, coh);  // Steer towards the location
+		}
 		// Arbitrarily weight these forces
 		sep.mult(separationWeight);
 		ali.mult(alignmentWeight);
@@ -87,6 +181,7 @@ public class Boid {
 
 	// Method to update location
 	public void update() {
+		prevLoc.set(loc.x, loc.y, loc.z);
 		// Update velocity
 		vel.add(acc);
 		// Limit speed
@@ -96,16 +191,39 @@ public class Boid {
 		acc.mult(0);
 	}
 
+	// Implement Reynolds: Steering = Desired - Velocity, where desired is the direction of steer at maxspeed.
+	// Modifies and returns steer, which is left unchanged if it has zero length.
+	PVector reynolds(PVector steer) {
+		// As long as the vector is greater than 0
+		if (steer.mag() > 0) {
+			steer.normalize();
+			steer.mult(maxspeed);
+			steer.sub(vel);
+			steer.limit(maxforce);
+		}
+		return steer;
+	}
+
 	public void seek(PVector target) {
-		acc.add(steer(target,false));
+		acc.add(steer(target, false, steerForce));
 	}
 
 	public void arrive(PVector target) {
-		acc.add(steer(target,true));
+		acc.add(steer(target, true, steerForce));
 	}
 
 	public void avoid(PVector obstacle, float force) {
-		PVector backoff = steer(obstacle, false);
+		avoid(obstacle.x, obstacle.y, force);
+	}
+
+	/**
+	 * Steers away from an obstacle at (x, y), or towards it if force is negative, without allocating.
+	 * @param x       x-coordinate of obstacle
+	 * @param y       y-coordinate of obstacle
+	 * @param force   scaling factor for the steering force
+	 */
+	public void avoid(float x, float y, float force) {
+		PVector backoff = steer(x, y, false, steerForce);
 		backoff.mult(-force);
 		acc.add(backoff);
 	}
@@ -113,53 +231,117 @@ public class Boid {
 	
 	// TODO set stroke and fill of boid image through variables and methods
 	public void render() {
-		if (isVisible) {
-			// Draw a triangle rotated in the direction of velocity
-			float theta = vel.heading() + PApplet.radians(90);
-			parent.fill(255);
-			parent.stroke(0);
-			parent.strokeWeight(1.0f);
-			parent.pushMatrix();
-			parent.translate(loc.x,loc.y);
-			parent.rotate(theta);
-			parent.beginShape(PApplet.TRIANGLES);
-			parent.vertex(0, -r*2);
-			parent.vertex(-r, r*2);
-			parent.vertex(r, r*2);
-			parent.endShape();
-			parent.popMatrix();
+		if (isVisible && null != parent) {
+			drawAt(loc.x, loc.y);
+		}
+	}
+
+	/**
+	 * Draws the boid between its last two locations, for display times that fall between simulation steps.
+	 * @param alpha   0 to draw at the location before the last step, 1 to draw at the current location
+	 */
+	public void render(float alpha) {
+		if (isVisible && null != parent) {
+			interpolate(alpha, point);
+			drawAt(point[0], point[1]);
+		}
+	}
+
+	/**
+	 * Interpolates between the location before the last call to update() and the current location. 
+	 * If the boid wrapped around the display in the last step, steps back along the velocity instead.
+	 * @param alpha   0 for the location before the last step, 1 for the current location
+	 * @param out     caller-owned array of at least 2 floats, receives {x, y}
+	 */
+	public void interpolate(float alpha, float[] out) {
+		if (alpha >= 1) {
+			out[0] = loc.x;
+			out[1] = loc.y;
+			return;
+		}
+		float dx = loc.x - prevLoc.x;
+		float dy = loc.y - prevLoc.y;
+		if (dx > world.halfW || dx < -world.halfW || dy > world.halfH || dy < -world.halfH) {
+			out[0] = loc.x - (1 - alpha) * vel.x;
+			out[1] = loc.y - (1 - alpha) * vel.y;
 		}
+		else {
+			out[0] = prevLoc.x + alpha * dx;
+			out[1] = prevLoc.y + alpha * dy;
+		}
+	}
+
+	/**
+	 * Draws whatever a subclass adds to the image of the boid, such as a TurtleBoid's trail. 
+	 * Called by Flock after it draws all the boids at once with a FlockRenderer. Boid draws nothing here.
+	 */
+	void renderTrail() {
+	}
+
+	// Draw a triangle rotated in the direction of velocity
+	void drawAt(float x, float y) {
+		float theta = vel.heading() + PApplet.radians(90);
+		parent.fill(255);
+		parent.stroke(0);
+		parent.strokeWeight(1.0f);
+		parent.pushMatrix();
+		parent.translate(x, y);
+		parent.rotate(theta);
+		parent.beginShape(PApplet.TRIANGLES);
+		parent.vertex(0, -r*2);
+		parent.vertex(-r, r*2);
+		parent.vertex(r, r*2);
+		parent.endShape();
+		parent.popMatrix();
 	}
 
 	// Wraparound
 	void borders() {
-		if (loc.x < -r) loc.x = parent.width+r;
-		if (loc.y < -r) loc.y = parent.height+r;
-		if (loc.x > parent.width + r) loc.x = -r;
-		if (loc.y > parent.height + r) loc.y = -r;
+		if (loc.x < -r) loc.x = world.width+r;
+		if (loc.y < -r) loc.y = world.height+r;
+		if (loc.x > world.width + r) loc.x = -r;
+		if (loc.y > world.height + r) loc.y = -r;
 	}
 	
 	public void applyForce(PVector force) {
-	    PVector f = PVector.div(force, mass);
-	    acc.add(f);
+		// same as acc.add(PVector.div(force, mass)), without the intermediate vector
+		acc.x += force.x / mass;
+		acc.y += force.y / mass;
+		acc.z += force.z / mass;
 	}
 
 	// A method that calculates a steering vector towards a target
 	// Takes a second argument, if true, it slows down as it approaches the target
 	// modified to use "wrapaound" distance on a torus.
 	public PVector steer(PVector target, boolean slowdown) {
-		PVector steer;  // The steering vector
-		PVector mapped;
-		if (mapToTorus) {
-			// find the coordinates of the nearest point mapping the other's position on a torus
-			mapped = nearestPointOnTorus(loc, target);
-		}
-		else {
-			mapped = target;
-		}
-		// distance to the other or to other's nearest position on a torus
+		return steer(target.x, target.y, slowdown, new PVector());
+	}
+
+	/**
+	 * Calculates a steering vector towards a target and writes it into a supplied vector.
+	 * @param target     the target
+	 * @param slowdown   if true, slow down when approaching the target
+	 * @param out        PVector to receive the steering vector, may be the same as target
+	 * @return           out
+	 */
+	public PVector steer(PVector target, boolean slowdown, PVector out) {
+		return steer(target.x, target.y, slowdown, out);
+	}
+
+	/**
+	 * Calculates a steering vector towards a target at (tx, ty) and writes it into a supplied vector.
+	 * @param tx         x-coordinate of the target
+	 * @param ty         y-coordinate of the target
+	 * @param slowdown   if true, slow down when approaching the target
+	 * @param out        PVector to receive the steering vector
+	 * @return           out
+	 */
+	public PVector steer(float tx, float ty, boolean slowdown, PVector out) {
+		// the target or the target's nearest position on a torus
+		float[] mapped = point;
+		mappedPoint(tx, ty, mapped);
 		// get the vector pointing from the location to the target's nearest position on a torus
-		PVector desired = PVector.sub(mapped,loc);
+		PVector desired = out.set(mapped[0] - loc.x, mapped[1] - loc.y, 0);
 		// Distance from the target is the magnitude of the vector
 		float d = desired.mag();
 		// If the distance is greater than 0, calculate steering (otherwise return zero vector)
@@ -174,13 +356,13 @@ public class Boid {
 				desired.mult(maxspeed);
 			}
 			// Steering = Desired minus Velocity
-			steer = PVector.sub(desired,vel);
-			steer.limit(maxforce);  // Limit to maximum steering force
+			desired.sub(vel);
+			desired.limit(maxforce);  // Limit to maximum steering force
 		} 
 		else {
-			steer = new PVector(0,0);
+			desired.set(0, 0, 0);
 		}
-		return steer;
+		return desired;
 	}
 
 	// Separation
@@ -188,26 +370,21 @@ public class Boid {
 	public PVector separate (ArrayList<Boid> boids) {
 		PVector steer = new PVector(0,0,0);
 		int count = 0;
+		float[] mapped = point;
 		// For every boid in the system, check if it's too close
 		for (int i = 0 ; i < boids.size(); i++) {
 			Boid other = (Boid) boids.get(i);
-			PVector mapped;
-			if (mapToTorus) {
-				// find the coordinates of the nearest point mapping the other's position on a torus
-				mapped = nearestPointOnTorus(loc, other.loc);
-			}
-			else {
-				mapped = other.loc;
-			}
+			// the other's position, or its nearest position on a torus
+			mappedPoint(other.loc, mapped);
 			// distance to the other or to other's nearest position on a torus
-			float d = PVector.dist(loc, mapped);
+			float dx = loc.x - mapped[0];
+			float dy = loc.y - mapped[1];
+			float d = (float) Math.sqrt(dx * dx + dy * dy);
 			// If the distance is greater than 0 and less than an arbitrary amount (0 when you are yourself)
 			if ((d > 0) && (d < separationDistance)) {
-				// Calculate vector pointing away from neighbor
-				PVector diff = PVector.sub(loc, mapped);
-				diff.normalize();
-				diff.div(d);        // Weight by distance
-				steer.add(diff);
+				// Calculate vector pointing away from neighbor, normalize and weight by distance
+				steer.x += (dx / d) / d;
+				steer.y += (dy / d) / d;
 				count++;            // Keep track of how many
 			}
 		}
@@ -215,15 +392,7 @@ public class Boid {
 		if (count > 0) {
 			steer.div((float)count);
 		}
-		// As long as the vector is greater than 0
-		if (steer.mag() > 0) {
-			// Implement Reynolds: Steering = Desired - Velocity
-			steer.normalize();
-			steer.mult(maxspeed);
-			steer.sub(vel);
-			steer.limit(maxforce);
-		}
-		return steer;
+		return reynolds(steer);
 	}
 
 	// Alignment
@@ -231,18 +400,15 @@ public class Boid {
 	public PVector align (ArrayList<Boid> boids) {
 		PVector steer = new PVector(0,0,0);
 		int count = 0;
+		float[] mapped = point;
 		for (int i = 0 ; i < boids.size(); i++) {
 			Boid other = (Boid) boids.get(i);
-			PVector mapped;
-			if (mapToTorus) {
-				// find the coordinates of the nearest point mapping the other's position on a torus
-				mapped = nearestPointOnTorus(loc, other.loc);
-			}
-			else {
-				mapped = other.loc;
-			}
+			// the other's position, or its nearest position on a torus
+			mappedPoint(other.loc, mapped);
 			// distance to the other or to other's nearest position on a torus
-			float d = PVector.dist(loc, mapped);
+			float dx = loc.x - mapped[0];
+			float dy = loc.y - mapped[1];
+			float d = (float) Math.sqrt(dx * dx + dy * dy);
 			if ((d > 0) && (d < alignmentDistance)) {
 				steer.add(other.vel);
 				count++;
@@ -251,15 +417,7 @@ public class Boid {
 		if (count > 0) {
 			steer.div((float)count);
 		}
-		// As long as the vector is greater than 0
-		if (steer.mag() > 0) {
-			// Implement Reynolds: Steering = Desired - Velocity
-			steer.normalize();
-			steer.mult(maxspeed);
-			steer.sub(vel);
-			steer.limit(maxforce);
-		}
-		return steer;
+		return reynolds(steer);
 	}
 
 	// Cohesion
@@ -267,33 +425,31 @@ public class Boid {
 	public PVector cohesion (ArrayList<Boid> boids) {
 		PVector sum = new PVector(0,0,0);   // Start with empty vector to accumulate all locations
 		int count = 0;
+		float[] mapped = point;
 		for (int i = 0 ; i < boids.size(); i++) {
 			Boid other = (Boid) boids.get(i);
-			PVector mapped;
-			if (mapToTorus) {
-				// find the coordinates of the nearest point mapping the other's position on a torus
-				mapped = nearestPointOnTorus(loc, other.loc);
-			}
-			else {
-				mapped = other.loc;
-			}
+			// the other's position, or its nearest position on a torus
+			mappedPoint(other.loc, mapped);
 			// distance to the other or to other's nearest position on a torus
-			float d = PVector.dist(loc, mapped);
+			float dx = loc.x - mapped[0];
+			float dy = loc.y - mapped[1];
+			float d = (float) Math.sqrt(dx * dx + dy * dy);
 			if ((d > 0) && (d < cohesionDistance)) {
-				if (drawCohesionLines) {
+				if (drawCohesionLines && null != parent) {
 					// draw lines to boids that contribute to sum
 					parent.pushStyle();
 					parent.stroke(192);
-					parent.line(loc.x, loc.y, mapped.x, mapped.y);
+					parent.line(loc.x, loc.y, mapped[0], mapped[1]);
 					parent.popStyle();
 				}
-				sum.add(mapped); // Add location
+				sum.x += mapped[0]; // Add location
+				sum.y += mapped[1];
 				count++;
 			}
 		}
 		if (count > 0) {
 			sum.div((float)count);
-			return steer(sum,false);  // Steer towards the location
+			return steer(sum, false, sum);  // Steer towards the location
 		}
 		return sum;
 	}
@@ -302,62 +458,77 @@ public class Boid {
 		vel.rotate(theta);
 	}
 	
+	/**
+	 * Writes the position of other into out, mapped to its nearest position on a torus when mapToTorus is true.
+	 * @param other   a position
+	 * @param out     caller-owned array of at least 2 floats, receives {x, y}
+	 */
+	void mappedPoint(PVector other, float[] out) {
+		mappedPoint(other.x, other.y, out);
+	}
+
+	void mappedPoint(float mx, float my, float[] out) {
+		if (mapToTorus) {
+			// find the coordinates of the nearest point mapping the other's position on a torus
+			torusPoint(loc.x, loc.y, mx, my, out);
+		}
+		else {
+			out[0] = mx;
+			out[1] = my;
+		}
+	}
+	
 	public PVector nearestPointOnTorus(PVector vec, PVector mappedVec) {
-		outcode = 0;
-		float x = vec.x;
-		float y = vec.y;
-		float left = x - halfW;
-		float right = x + halfW;
-		float top = y - halfH;
-		float bottom = y + halfH;
-		float mx = mappedVec.x;
-		float my = mappedVec.y;
-		float w = parent.width;
-		float h = parent.height;
-		PVector out;
-		  if (mx < left ) {
-			  if (my < top) {
-				  outcode = 1;
-				  out = new PVector(mx + w, my + h);
-			  }
-			  else if (my > bottom) {
-				  outcode = 3;
-				  out = new PVector(mx + w, my - h);
-			  }
-			  else {
-				  outcode = 2;
-				  out = new PVector(mx + w, my);
-			  }
-		  }
-		  else if (mx > right) {
-			  if (my < top) {
-				  outcode = 7;
-				  out = new PVector(mx - w, my + h);
-			  }
-			  else if (my > bottom) {
-				  outcode = 9;
-				  out = new PVector(mx - w, my - h);
-			  }
-			  else {
-				  outcode = 8;
-				  out = new PVector(mx - w, my);
-			  }
-		  }
-		  else {
-			  if (my < top) {
-				  outcode = 4;
-				  out = new PVector(mx, my + h);
-			  }
-			  else if (my > bottom) {
-				  outcode = 6;
-				  out = new PVector(mx, my - h);
-			  }
-			  else {
-				  outcode = 5;
-				  out = new PVector(mx, my);
-			  }
-		  }
-		  return out;
+		torusPoint(vec.x, vec.y, mappedVec.x, mappedVec.y, point);
+		return new PVector(point[0], point[1]);
+	}
+
+	/**
+	 * Allocation-free version of nearestPointOnTorus: finds the image of (mx, my) on a torus 
+	 * the size of the world (usually the display) that is nearest to (x, y) and writes its coordinates into out. 
+	 * Also sets outcode.
+	 * @param x     x-coordinate of reference point
+	 * @param y     y-coordinate of reference point
+	 * @param mx    x-coordinate of point to map
+	 * @param my    y-coordinate of point to map
+	 * @param out   caller-owned array of at least 2 floats, receives {x, y} of the nearest image
+	 * @return      the outcode, 5 if the point is not shifted, 1..9 for the position of the image, 
+	 *              in columns from left to right, rows from top to bottom
+	 */
+	public int torusPoint(float x, float y, float mx, float my, float[] out) {
+		outcode = world.torusPoint(x, y, mx, my, out);
+		return outcode;
+	}
+
+	/**
+	 * Finds the offset from (x, y) to the nearest image of (mx, my) on a torus the size of the display
+	 * and writes it into delta. Also sets outcode.
+	 * @param x       x-coordinate of reference point
+	 * @param y       y-coordinate of reference point
+	 * @param mx      x-coordinate of point to map
+	 * @param my      y-coordinate of point to map
+	 * @param delta   caller-owned array of at least 2 floats, receives {dx, dy}
+	 * @return        the outcode
+	 */
+	public int torusDelta(float x, float y, float mx, float my, float[] delta) {
+		torusPoint(x, y, mx, my, delta);
+		delta[0] -= x;
+		delta[1] -= y;
+		return outcode;
+	}
+
+	/**
+	 * @return the bounds of the world the boid lives in
+	 */
+	public WorldBounds getWorld() {
+		return world;
+	}
+
+	/**
+	 * @param world   bounds of the world the boid lives in
+	 */
+	public void setWorld(WorldBounds world) {
+		this.world = world;
 	}
 
 	/**
@@ -396,10 +567,11 @@ public class Boid {
 	}
 
 	/**
-	 * @param loc the loc to set
+	 * @param loc the loc to set, also the location that render(float) interpolates from
 	 */
 	public void setLoc(PVector loc) {
 		this.loc = loc;
+		this.prevLoc.set(loc.x, loc.y, loc.z);
 	}
 
 	/**
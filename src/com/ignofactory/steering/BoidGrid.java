@@ -0,0 +1,163 @@
+package com.ignofactory.steering;
+
+/**
+ * A uniform grid (spatial hash) over the display, rebuilt once per frame, used to find
+ * candidate neighbors for boids without scanning the entire flock.
+ * Cells are at least as large as the largest neighbor radius, so all neighbors of a boid
+ * lie in the 3 x 3 block of cells around it. When wrap is true, cells on opposite edges
+ * of the display are neighbors, the same topological torus that Boid uses when mapToTorus is true.
+ * Items are stored by index with a counting sort, so a rebuild is O(n) and allocates nothing
+ * once the arrays have grown to the size of the flock.
+ */
+public class BoidGrid {
+	/** number of columns */
+	int cols;
+	/** number of rows */
+	int rows;
+	/** width of a cell */
+	float cellW;
+	/** height of a cell */
+	float cellH;
+	/** do cells wrap around display edges? */
+	boolean wrap;
+	/** index of first item in each cell, cellStart[c + 1] - cellStart[c] is the number of items in cell c */
+	int[] cellStart = new int[0];
+	/** item indices, sorted by cell */
+	int[] items = new int[0];
+	/** cell of each item, set in rebuild */
+	int[] itemCell = new int[0];
+	/** number of items in the grid */
+	int count;
+	/** smallest edge length of a cell, in pixels */
+	static final float MIN_CELL = 8;
+
+	public BoidGrid() {
+	}
+
+	/**
+	 * Sorts points into grid cells.
+	 * @param xs         x-coordinates of points
+	 * @param ys         y-coordinates of points
+	 * @param n          number of points to use from xs and ys
+	 * @param width      width of the display
+	 * @param height     height of the display
+	 * @param cellSize   minimum edge length of a cell, typically the largest neighbor radius
+	 * @param wrap       true if cells wrap around the display edges (torus), false otherwise
+	 */
+	public void rebuild(float[] xs, float[] ys, int n, float width, float height, float cellSize, boolean wrap) {
+		this.wrap = wrap;
+		this.count = n;
+		// very small cells only cost memory and time to clear
+		if (cellSize < MIN_CELL) cellSize = MIN_CELL;
+		cols = Math.max(1, (int) (width / cellSize));
+		rows = Math.max(1, (int) (height / cellSize));
+		cellW = width / cols;
+		cellH = height / rows;
+		int cells = cols * rows;
+		if (cellStart.length < cells + 1) cellStart = new int[cells + 1];
+		if (items.length < n) {
+			items = new int[n];
+			itemCell = new int[n];
+		}
+		for (int c = 0; c <= cells; c++) cellStart[c] = 0;
+		// count items per cell, offset by one so the prefix sum yields start indices
+		for (int i = 0; i < n; i++) {
+			int c = cellIndex(xs[i], ys[i]);
+			itemCell[i] = c;
+			cellStart[c + 1]++;
+		}
+		for (int c = 0; c < cells; c++) cellStart[c + 1] += cellStart[c];
+		// distribute, using cellStart as a running insertion index, then shift it back
+		for (int i = 0; i < n; i++) {
+			items[cellStart[itemCell[i]]++] = i;
+		}
+		for (int c = cells; c > 0; c--) cellStart[c] = cellStart[c - 1];
+		cellStart[0] = 0;
+	}
+
+	/**
+	 * @param x   x-coordinate
+	 * @param y   y-coordinate
+	 * @return    index of the cell containing (x, y), points outside the display are clamped or wrapped
+	 */
+	public int cellIndex(float x, float y) {
+		return row(y) * cols + col(x);
+	}
+
+	int col(float x) {
+		int cx = (int) Math.floor(x / cellW);
+		if (wrap) {
+			cx %= cols;
+			if (cx < 0) cx += cols;
+		}
+		else {
+			if (cx < 0) cx = 0;
+			else if (cx >= cols) cx = cols - 1;
+		}
+		return cx;
+	}
+
+	int row(float y) {
+		int cy = (int) Math.floor(y / cellH);
+		if (wrap) {
+			cy %= rows;
+			if (cy < 0) cy += rows;
+		}
+		else {
+			if (cy < 0) cy = 0;
+			else if (cy >= rows) cy = rows - 1;
+		}
+		return cy;
+	}
+
+	/**
+	 * Writes the indices of all items in the 3 x 3 block of cells around (x, y) into out.
+	 * When the grid has fewer than 3 columns or rows in wrap mode, cells are only visited once.
+	 * @param x     x-coordinate
+	 * @param y     y-coordinate
+	 * @param out   array to receive item indices, must have room for all items in the grid
+	 * @return      the number of indices written to out
+	 */
+	public int query(float x, float y, int[] out) {
+		int cx = col(x);
+		int cy = row(y);
+		int n = 0;
+		for (int dy = -1; dy <= 1; dy++) {
+			int ry = cy + dy;
+			if (wrap) {
+				// skip rows we would visit twice on a small grid
+				if (rows < 3 && dy != 0 && (rows == 1 || dy == 1)) continue;
+				ry = (ry + rows) % rows;
+			}
+			else if (ry < 0 || ry >= rows) continue;
+			for (int dx = -1; dx <= 1; dx++) {
+				int rx = cx + dx;
+				if (wrap) {
+					if (cols < 3 && dx != 0 && (cols == 1 || dx == 1)) continue;
+					rx = (rx + cols) % cols;
+				}
+				else if (rx < 0 || rx >= cols) continue;
+				int c = ry * cols + rx;
+				for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+					out[n++] = items[k];
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getCols() {
+		return cols;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+}
@@ -0,0 +1,244 @@
+package com.ignofactory.steering;
+
+import processing.core.*;
+
+/**
+ * A FlockRenderer for software rendering: the boid triangle is rasterized once, with antialiasing,
+ * at a number of evenly spaced headings, into one small PImage per heading, and each boid is drawn
+ * as an unscaled image() of the sprite nearest its heading, with no transforms, shapes or
+ * path rasterization. The renderer composites the sprite over whatever is in the PGraphics, so
+ * transparent layers keep the right alpha, and never has to copy the pixels of the whole frame.
+ *
+ * Boids are placed to the nearest pixel and headings are quantized, 64 by default, about 5.6 degrees apart.
+ * Sprites are rebuilt when the style, size or pixel density changes. Strokes are drawn with round joins.
+ */
+public class BoidSpriteAtlas extends FlockRenderer {
+	/** number of headings the glyph is rasterized at */
+	int headings;
+	/** subsamples along each axis of a pixel, when rasterizing */
+	static final int SUBSAMPLES = 4;
+	/** sprites reach this many device pixels from the boid in each direction */
+	int half;
+	/** for each heading, the glyph rasterized at that heading, with the boid at pixel (half, half) */
+	PImage[] sprites;
+	/** device pixels per unit of the sketch, as set by pixelDensity() in Processing 3 */
+	int density = 1;
+	/** true if the style, size or density changed since the sprites were built */
+	boolean stale = true;
+	/** sprite index of each boid in the current batch */
+	int[] frames = new int[0];
+	/** number of boids in the current batch */
+	int count;
+
+	public BoidSpriteAtlas() {
+		this(64);
+	}
+
+	/**
+	 * @param headings   number of headings to rasterize the glyph at
+	 */
+	public BoidSpriteAtlas(int headings) {
+		this.headings = Math.max(1, headings);
+	}
+
+	void begin(int n) {
+		super.begin(n);
+		if (frames.length < n) frames = new int[n];
+		count = 0;
+	}
+
+	/**
+	 * Adds a boid to the batch, as its location and the index of the sprite nearest its heading.
+	 * @param x    x-coordinate of boid
+	 * @param y    y-coordinate of boid
+	 * @param dx   x-component of direction, usually velocity
+	 * @param dy   y-component of direction, usually velocity
+	 */
+	void addBoid(float x, float y, float dx, float dy) {
+		// atan2(0, 0) is 0, the heading of a zero vector in PVector.heading()
+		double turns = Math.atan2(dy, dx) / (2 * Math.PI);
+		int k = (int) Math.round(turns * headings) % headings;
+		if (k < 0) k += headings;
+		verts[2 * count] = x;
+		verts[2 * count + 1] = y;
+		frames[count++] = k;
+	}
+
+	/**
+	 * Draws the sprite of each boid in the batch at its location in pg.
+	 */
+	void end(PGraphics pg) {
+		if (0 == count) return;
+		if (stale) build();
+		float d = density;
+		float side = sprites[0].width / d;
+		pg.pushStyle();
+		pg.imageMode(PConstants.CORNER);
+		pg.noTint();
+		float[] v = verts;
+		for (int i = 0; i < count; i++) {
+			// snap to a device pixel, so that the sprite is copied without resampling
+			int x0 = (int) Math.floor(v[2 * i] * d);
+			int y0 = (int) Math.floor(v[2 * i + 1] * d);
+			pg.image(sprites[frames[i]], (x0 - half) / d, (y0 - half) / d, side, side);
+		}
+		pg.popStyle();
+	}
+
+	/**
+	 * Rasterizes the triangle that FlockRenderer draws at each heading, in device pixels.
+	 */
+	void build() {
+		float w2 = (strokeColor >>> 24) > 0 ? density * weight / 2 : 0;
+		float r = density * this.r;
+		// the corners at the back are sqrt(5) * r from the boid
+		half = (int) Math.ceil(Math.sqrt(5) * r + w2 + 1);
+		int side = 2 * half + 1;
+		sprites = new PImage[headings];
+		float[] t = new float[6];
+		for (int k = 0; k < headings; k++) {
+			double theta = 2 * Math.PI * k / headings;
+			float ux = (float) Math.cos(theta);
+			float uy = (float) Math.sin(theta);
+			float r2 = r * 2;
+			// corners as in FlockRenderer.addBoid(), relative to the boid
+			t[0] = r2 * ux;
+			t[1] = r2 * uy;
+			t[2] = r * uy - r2 * ux;
+			t[3] = -r * ux - r2 * uy;
+			t[4] = -r * uy - r2 * ux;
+			t[5] = r * ux - r2 * uy;
+			PImage sprite = new PImage(side, side, PConstants.ARGB);
+			int[] argb = sprite.pixels;
+			for (int py = -half; py <= half; py++) {
+				for (int px = -half; px <= half; px++) {
+					argb[(py + half) * side + px + half] = rasterize(t, px, py, w2);
+				}
+			}
+			sprites[k] = sprite;
+		}
+		stale = false;
+	}
+
+	/**
+	 * Calculates the color of one pixel of a sprite by sampling it on a grid. A sample
+	 * within half the stroke weight of an edge takes the stroke color, a sample inside the triangle
+	 * takes the fill color. The boid is at the center of pixel (0, 0).
+	 * @param t    corners of the triangle, x and y
+	 * @param px   column of the pixel, relative to the boid
+	 * @param py   row of the pixel, relative to the boid
+	 * @param w2   half the stroke weight, 0 for no stroke
+	 * @return     color of the pixel, ARGB not premultiplied by alpha, as in a PImage
+	 */
+	int rasterize(float[] t, int px, int py, float w2) {
+		int sa = 0, sr = 0, sg = 0, sb = 0;
+		int n = SUBSAMPLES;
+		for (int j = 0; j < n; j++) {
+			float y = py + (j + 0.5f) / n - 0.5f;
+			for (int i = 0; i < n; i++) {
+				float x = px + (i + 0.5f) / n - 0.5f;
+				int c;
+				if (w2 > 0 && edgeDistance(t, x, y) <= w2) {
+					c = strokeColor;
+				}
+				else if (inside(t, x, y)) {
+					c = fillColor;
+				}
+				else {
+					continue;
+				}
+				int a = c >>> 24;
+				sa += a;
+				sr += a * ((c >> 16) & 0xFF);
+				sg += a * ((c >> 8) & 0xFF);
+				sb += a * (c & 0xFF);
+			}
+		}
+		int n2 = n * n;
+		int a = (sa + n2 / 2) / n2;
+		if (0 == a) return 0;
+		// color is the average of the covered samples, weighted by their alpha
+		return a << 24 | (sr + sa / 2) / sa << 16 | (sg + sa / 2) / sa << 8 | (sb + sa / 2) / sa;
+	}
+
+	/**
+	 * @return true if (x, y) is inside the triangle t, whatever its winding
+	 */
+	static boolean inside(float[] t, float x, float y) {
+		float d0 = cross(t[0], t[1], t[2], t[3], x, y);
+		float d1 = cross(t[2], t[3], t[4], t[5], x, y);
+		float d2 = cross(t[4], t[5], t[0], t[1], x, y);
+		return (d0 >= 0 && d1 >= 0 && d2 >= 0) || (d0 <= 0 && d1 <= 0 && d2 <= 0);
+	}
+
+	static float cross(float ax, float ay, float bx, float by, float x, float y) {
+		return (bx - ax) * (y - ay) - (by - ay) * (x - ax);
+	}
+
+	/**
+	 * @return distance from (x, y) to the nearest edge of the triangle t
+	 */
+	static float edgeDistance(float[] t, float x, float y) {
+		float d = segmentDistance(t[0], t[1], t[2], t[3], x, y);
+		d = Math.min(d, segmentDistance(t[2], t[3], t[4], t[5], x, y));
+		return Math.min(d, segmentDistance(t[4], t[5], t[0], t[1], x, y));
+	}
+
+	static float segmentDistance(float ax, float ay, float bx, float by, float x, float y) {
+		float ex = bx - ax;
+		float ey = by - ay;
+		float len2 = ex * ex + ey * ey;
+		float u = (len2 > 0) ? ((x - ax) * ex + (y - ay) * ey) / len2 : 0;
+		u = Math.max(0, Math.min(1, u));
+		float dx = x - (ax + u * ex);
+		float dy = y - (ay + u * ey);
+		return (float) Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public void setFillColor(int fillColor) {
+		super.setFillColor(fillColor);
+		stale = true;
+	}
+
+	public void setStrokeColor(int strokeColor) {
+		super.setStrokeColor(strokeColor);
+		stale = true;
+	}
+
+	public void setWeight(float weight) {
+		super.setWeight(weight);
+		stale = true;
+	}
+
+	public void setSize(float r) {
+		super.setSize(r);
+		stale = true;
+	}
+
+	/**
+	 * Sets the number of device pixels per unit of the sketch, so that sprites stay sharp and
+	 * boids land on device pixels when the sketch calls pixelDensity(2) in Processing 3.
+	 * @param density   pixel density of the PGraphics the atlas draws in, 1 or more
+	 */
+	public void setPixelDensity(int density) {
+		density = Math.max(1, density);
+		if (density != this.density) {
+			this.density = density;
+			stale = true;
+		}
+	}
+
+	/**
+	 * @return pixel density the sprites are rasterized for
+	 */
+	public int getPixelDensity() {
+		return density;
+	}
+
+	/**
+	 * @return number of headings the glyph is rasterized at
+	 */
+	public int getHeadings() {
+		return headings;
+	}
+}
@@ -0,0 +1,132 @@
+package com.ignofactory.steering;
+
+import processing.core.*;
+import processing.video.*;
+
+/**
+ * A FrameSource that reads a camera through processing.video.Capture. The Capture is also the
+ * image OpticalFlower passes to its VideoCallbackINF responder, so responders draw the camera
+ * image directly, as they did before frame sources.
+ */
+public class CaptureSource implements FrameSource {
+	PApplet parent;
+	int width;
+	int height;
+	String cameraName;
+	int fps;
+	Capture video;
+	long timestamp;
+	static String[] videoDevices;
+
+	/**
+	 * @param parent       the PApplet instance
+	 * @param width        width of video
+	 * @param height       height of video
+	 * @param cameraName   name of the camera, as in Capture.list()
+	 * @param fps          frames per second
+	 */
+	public CaptureSource(PApplet parent, int width, int height, String cameraName, int fps) {
+		this.parent = parent;
+		this.width = width;
+		this.height = height;
+		this.cameraName = cameraName;
+		this.fps = fps;
+	}
+
+	/**
+	 * Opens the camera if some attached device matches our name, size and frame rate, see validate().
+	 */
+	public boolean start() {
+		if (null == video) {
+			if (!validate(width, height, cameraName, fps)) return false;
+			video = new Capture(parent, width, height, cameraName, fps);
+		}
+		video.start();
+		return true;
+	}
+
+	public void stop() {
+		if (null != video) video.stop();
+	}
+
+	public boolean available() {
+		return video.available();
+	}
+
+	public boolean read() {
+		video.read();
+		video.loadPixels();
+		timestamp = parent.millis();
+		return true;
+	}
+
+	public int[] getPixels() {
+		return video.pixels;
+	}
+
+	/**
+	 * @return the Capture, which holds the last frame read
+	 */
+	public PImage getImage() {
+		return video;
+	}
+
+	/**
+	 * @return value of millis() when the last frame was read
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the Capture, null until start() has opened the camera
+	 */
+	public Capture getCapture() {
+		return video;
+	}
+
+	/**
+	 * @return   a list of attached video devices and information about each
+	 */
+	public static String[] list() {
+		if (null == videoDevices) {
+			videoDevices = Capture.list();
+		}
+		return videoDevices;
+	}
+
+	/**
+	 * Steps through the list of attached video devices--if one matches arguments, return true.
+	 * @param testW      width of video image
+	 * @param testH      height of video image
+	 * @param testName   name of video device
+	 * @param testFps    frames per second
+	 * @return           true if there is a video device that matches the supplied arguments, false otherwise
+	 */
+	public static boolean validate(int testW, int testH, String testName, int testFps) {
+		String[] devices = list();
+		for (int i = 0; i < devices.length; i++) {
+			String device = devices[i];
+			String[] info = device.split(",");
+			String deviceName = info[0].substring(info[0].indexOf("=") + 1);
+			String dimensions = info[1].substring(info[1].indexOf("=") + 1);
+			String[] coords = dimensions.split("x");
+			int w = Integer.valueOf(coords[0]);
+			int h = Integer.valueOf(coords[1]);
+			String fps = info[2].substring(info[2].indexOf("=") + 1);
+			int framerate = Integer.valueOf(fps);
+			if (w == testW && h == testH && deviceName.equals(testName) && framerate == testFps) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
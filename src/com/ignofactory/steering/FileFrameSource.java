@@ -0,0 +1,137 @@
+package com.ignofactory.steering;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import processing.core.PApplet;
+
+/**
+ * A FrameSource that plays back a file of raw frames, one after another with no header: either
+ * 3 bytes per pixel, red, green and blue, as written by "ffmpeg -i movie.mov -f rawvideo -pix_fmt rgb24 frames.raw",
+ * or 4 bytes per pixel, big-endian ARGB ints, as written by DataOutputStream.writeInt() for each pixel.
+ * Plays in real time at fps frames per second, or as fast as frames are read if fps is 0, see PacedFrameSource.
+ * Loops back to the first frame at the end of the file unless loop is false.
+ */
+public class FileFrameSource extends PacedFrameSource {
+	String path;
+	/** 3 for RGB, 4 for ARGB */
+	int bytesPerPixel;
+	boolean loop = true;
+	RandomAccessFile file;
+	/** number of complete frames in the file */
+	long frameCount;
+	/** bytes of the last frame read */
+	byte[] buffer;
+
+	/**
+	 * @param path     path to a file of RGB frames, 3 bytes per pixel
+	 * @param width    width of frames
+	 * @param height   height of frames
+	 * @param fps      frames per second, 0 to deliver frames as fast as they are read
+	 */
+	public FileFrameSource(String path, int width, int height, float fps) {
+		this(path, width, height, fps, 3);
+	}
+
+	/**
+	 * @param path            path to a file of raw frames
+	 * @param width           width of frames
+	 * @param height          height of frames
+	 * @param fps             frames per second, 0 to deliver frames as fast as they are read
+	 * @param bytesPerPixel   3 for RGB frames, 4 for ARGB frames
+	 */
+	public FileFrameSource(String path, int width, int height, float fps, int bytesPerPixel) {
+		super(width, height, fps);
+		this.path = path;
+		this.bytesPerPixel = (4 == bytesPerPixel) ? 4 : 3;
+		this.buffer = new byte[width * height * this.bytesPerPixel];
+	}
+
+	/**
+	 * Opens the file.
+	 * @return true if the file could be opened and holds at least one frame
+	 */
+	public boolean start() {
+		stop();
+		try {
+			file = new RandomAccessFile(path, "r");
+			frameCount = file.length() / buffer.length;
+		}
+		catch (IOException e) {
+			PApplet.println("Could not open "+ path +": "+ e.getMessage());
+			file = null;
+			return false;
+		}
+		if (0 == frameCount) {
+			PApplet.println(path +" is too short for a "+ width +" x "+ height +" frame");
+			stop();
+			return false;
+		}
+		return super.start();
+	}
+
+	public void stop() {
+		if (null == file) return;
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+			// nothing we can do
+		}
+		file = null;
+	}
+
+	public boolean available() {
+		return null != file && (loop || frame + 1 < frameCount) && super.available();
+	}
+
+	boolean readFrame(long index, int[] pixels) {
+		if (null == file) return false;
+		if (index >= frameCount) {
+			if (!loop) return false;
+			index %= frameCount;
+		}
+		try {
+			file.seek(index * buffer.length);
+			file.readFully(buffer);
+		}
+		catch (IOException e) {
+			PApplet.println("Could not read frame "+ index +" from "+ path +": "+ e.getMessage());
+			return false;
+		}
+		byte[] b = buffer;
+		int n = pixels.length;
+		if (3 == bytesPerPixel) {
+			for (int i = 0, k = 0; i < n; i++, k += 3) {
+				pixels[i] = 0xFF000000 | (b[k] & 0xFF) << 16 | (b[k + 1] & 0xFF) << 8 | (b[k + 2] & 0xFF);
+			}
+		}
+		else {
+			for (int i = 0, k = 0; i < n; i++, k += 4) {
+				pixels[i] = (b[k] & 0xFF) << 24 | (b[k + 1] & 0xFF) << 16 | (b[k + 2] & 0xFF) << 8 | (b[k + 3] & 0xFF);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of complete frames in the file, 0 until start() has opened it
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return true if playback loops back to the first frame at the end of the file
+	 */
+	public boolean isLoop() {
+		return loop;
+	}
+
+	/**
+	 * @param loop   true to loop back to the first frame at the end of the file, false to stop there
+	 */
+	public void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+}
@@ -0,0 +1,99 @@
+package com.ignofactory.steering;
+
+/**
+ * Turns the irregular time between rendered frames into a whole number of simulation steps
+ * of fixed length, so that boids move at the same speed whatever frame rate a sketch achieves.
+ * Time left over after the last whole step is kept in an accumulator for the next frame, and 
+ * getAlpha() tells how far the display time lies between the last two simulated steps, 
+ * for drawing boids at interpolated locations. 
+ * 
+ * After a long stall (a pause, a slow frame) at most maxSteps steps are run and the rest of the 
+ * time is dropped, so the simulation slows down briefly instead of falling further and further behind.
+ */
+public class FixedTimestep {
+	/** length of a step, in seconds */
+	double stepLength;
+	/** time not yet simulated, in seconds, always less than stepLength after advance() */
+	double accumulator = 0;
+	/** most steps that advance() will return */
+	int maxSteps = 4;
+	/** System.nanoTime() at the last call to advance(), -1 before the first call */
+	long lastTime = -1;
+
+	/**
+	 * @param rate   steps per second, 30 if rate is not greater than 0
+	 */
+	public FixedTimestep(float rate) {
+		setRate(rate > 0 ? rate : 30);
+	}
+
+	/**
+	 * Adds the time since the last call to the accumulator, one step on the first call.
+	 * @return the number of steps to simulate, from 0 to maxSteps
+	 */
+	public int advance() {
+		long now = System.nanoTime();
+		double elapsed = (lastTime < 0) ? stepLength : (now - lastTime) / 1.0e9;
+		lastTime = now;
+		return advance(elapsed);
+	}
+
+	/**
+	 * Adds elapsed time to the accumulator and removes the whole steps it contains.
+	 * @param seconds   elapsed time, in seconds
+	 * @return the number of steps to simulate, from 0 to maxSteps
+	 */
+	public int advance(double seconds) {
+		if (seconds > 0) accumulator += seconds;
+		int steps = (int) (accumulator / stepLength);
+		accumulator -= steps * stepLength;
+		// steps beyond maxSteps are dropped
+		return Math.min(steps, maxSteps);
+	}
+
+	/**
+	 * @return fraction of a step between the last simulated step and the current time, in [0, 1)
+	 */
+	public float getAlpha() {
+		float alpha = (float) (accumulator / stepLength);
+		return alpha < 1 ? alpha : 0.999999f;
+	}
+
+	/**
+	 * Empties the accumulator; the next call to advance() runs one step.
+	 */
+	public void reset() {
+		accumulator = 0;
+		lastTime = -1;
+	}
+
+	/**
+	 * @return steps per second
+	 */
+	public float getRate() {
+		return (float) (1.0 / stepLength);
+	}
+
+	/**
+	 * @param rate   steps per second, values less than or equal to 0 are ignored
+	 */
+	public void setRate(float rate) {
+		if (rate <= 0) return;
+		this.stepLength = 1.0 / rate;
+	}
+
+	/**
+	 * @return the most steps that advance() will return
+	 */
+	public int getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * @param maxSteps   the most steps that advance() will return, at least 1
+	 */
+	public void setMaxSteps(int maxSteps) {
+		this.maxSteps = Math.max(1, maxSteps);
+	}
+
+}
@@ -5,28 +5,276 @@ package com.ignofactory.steering;
 // The Nature of Code, Spring 2009
 // Flock class
 // Does very little, simply manages the ArrayList of all the boids
+// Modifications by Paul Hertz: a uniform grid (BoidGrid) is rebuilt every frame so that each boid
+// only looks at boids in its own and adjoining grid cells instead of the whole flock.
+// With a FlockRenderer, all boids are drawn in a single shape after they have moved.
+// With a FixedTimestep, run() simulates a whole number of fixed steps per frame and draws boids between steps.
 
 import java.util.ArrayList;
 
+import processing.core.PApplet;
+
 public class Flock {
 	  ArrayList<Boid> boids; // An arraylist for all the boids
+	  /** bounds shared by all the boids in the flock, taken from the first boid added */
+	  WorldBounds world;
+	  /** spatial index of boid locations, rebuilt each time run() is called */
+	  BoidGrid grid;
+	  /** use the grid to find neighbors? if false, every boid is passed the whole flock */
+	  boolean useGrid = true;
+	  // scratch storage for the grid, reused from frame to frame
+	  float[] xs = new float[0];
+	  float[] ys = new float[0];
+	  int[] hits = new int[0];
+	  // forces applied to each boid since the last call to run(), applied again at every fixed step
+	  float[] forceX = new float[0];
+	  float[] forceY = new float[0];
+	  ArrayList<Boid> neighbors;
+	  /** when not null, run() steps the flock at a fixed rate instead of once per call */
+	  FixedTimestep timestep;
+	  /** when not null, draws all the boids at once instead of calling Boid.render() for each boid */
+	  FlockRenderer renderer;
+	  /** when not null, TurtleBoids in the flock draw their current trails into it a segment at a time */
+	  TrailLayer trailLayer;
 
 	  public Flock() {
 	    boids = new ArrayList<Boid>(); // Initialize the arraylist
+	    grid = new BoidGrid();
+	    neighbors = new ArrayList<Boid>();
 	  }
 
 	  public void run() {
+	    if (null == timestep) {
+	      if (null == renderer) {
+	        step(true);
+	      }
+	      else {
+	        step(false);
+	        render(1);
+	      }
+	      if (null != trailLayer) trailLayer.endDraw();
+	      return;
+	    }
+	    // run as many fixed steps as fit in the time since the last frame, then draw between the last two
+	    int steps = timestep.advance();
+	    // forces applied since the last frame, such as flow, wind or the mouse, act on every step of this
+	    // frame and are dropped if there are no steps, so that they do not depend on the frame rate
+	    takeForces();
+	    for (int s = 0; s < steps; s++) {
+	      applyForces();
+	      step(false);
+	    }
+	    render(timestep.getAlpha());
+	    if (null != trailLayer) trailLayer.endDraw();
+	  }
+
+	  /**
+	   * Saves and clears the acceleration of each boid, the forces applied to it since the last frame.
+	   */
+	  void takeForces() {
+	    int n = boids.size();
+	    if (forceX.length < n) {
+	      forceX = new float[n];
+	      forceY = new float[n];
+	    }
+	    for (int i = 0; i < n; i++) {
+	      Boid b = boids.get(i);
+	      forceX[i] = b.acc.x;
+	      forceY[i] = b.acc.y;
+	      b.acc.set(0, 0, 0);
+	    }
+	  }
+
+	  /**
+	   * Adds the forces saved by takeForces() to the acceleration of each boid, before a step.
+	   */
+	  void applyForces() {
 	    for (int i = 0; i < boids.size(); i++) {
-	      Boid b = (Boid) boids.get(i);  
-	      b.run(boids);  // Passing the entire list of boids to each boid individually
+	      Boid b = boids.get(i);
+	      b.acc.x += forceX[i];
+	      b.acc.y += forceY[i];
+	    }
+	  }
+
+	  /**
+	   * Steps every boid once.
+	   * @param render   if true, each boid is drawn right after it moves
+	   */
+	  void step(boolean render) {
+	    if (useGrid && boids.size() > 1) {
+	      runGrid(render);
+	      return;
+	    }
+	    for (int i = 0; i < boids.size(); i++) {
+	      Boid b = (Boid) boids.get(i);
+	      // Passing the entire list of boids to each boid individually
+	      if (render) b.run(boids);
+	      else b.step(boids);
+	    }
+	  }
+
+	  /**
+	   * Draws every boid between its last two locations.
+	   * @param alpha   0 for the locations before the last step, 1 for the current locations
+	   */
+	  void render(float alpha) {
+	    if (null != renderer) {
+	      renderBatch(alpha);
+	      return;
+	    }
+	    for (int i = 0; i < boids.size(); i++) {
+	      boids.get(i).render(alpha);
+	    }
+	  }
+
+	  /**
+	   * Draws all the visible boids in one shape with the renderer, then anything
+	   * the boids draw besides themselves, such as TurtleBoid trails.
+	   */
+	  void renderBatch(float alpha) {
+	    PApplet parent = null;
+	    for (int i = 0; i < boids.size() && null == parent; i++) {
+	      parent = boids.get(i).parent;
+	    }
+	    // headless boids are not drawn
+	    if (null == parent) return;
+	    renderer.render(parent.g, boids, alpha);
+	    for (int i = 0; i < boids.size(); i++) {
+	      boids.get(i).renderTrail();
+	    }
+	  }
+
+	  /**
+	   * Rebuilds the grid from current boid locations, then passes each boid only the boids
+	   * in the 3 x 3 block of cells around it. Cells are sized to the largest separation, alignment
+	   * or cohesion distance in the flock, plus the largest maximum speed, since boids that have
+	   * already been updated in this frame may have moved that far from where the grid saw them.
+	   */
+	  void runGrid(boolean render) {
+	    int n = boids.size();
+	    if (xs.length < n) {
+	      xs = new float[n];
+	      ys = new float[n];
+	      hits = new int[n];
+	    }
+	    float reach = 0;
+	    float speed = 0;
+	    for (int i = 0; i < n; i++) {
+	      Boid b = boids.get(i);
+	      xs[i] = b.loc.x;
+	      ys[i] = b.loc.y;
+	      if (b.separationDistance > reach) reach = b.separationDistance;
+	      if (b.alignmentDistance > reach) reach = b.alignmentDistance;
+	      if (b.cohesionDistance > reach) reach = b.cohesionDistance;
+	      if (b.maxspeed > speed) speed = b.maxspeed;
+	    }
+	    Boid first = boids.get(0);
+	    grid.rebuild(xs, ys, n, first.world.width, first.world.height, reach + speed, Boid.mapToTorus);
+	    for (int i = 0; i < n; i++) {
+	      Boid b = boids.get(i);
+	      int count = grid.query(xs[i], ys[i], hits);
+	      neighbors.clear();
+	      for (int k = 0; k < count; k++) {
+	        neighbors.add(boids.get(hits[k]));
+	      }
+	      if (render) b.run(neighbors);
+	      else b.step(neighbors);
 	    }
 	  }
 
 	  public void addBoid(Boid b) {
+	    // every boid lives in the same world, so that resizing the world reaches all of them
+	    if (null == world) world = b.world;
+	    else b.setWorld(world);
+	    if (b instanceof TurtleBoid) ((TurtleBoid) b).setTrailLayer(trailLayer);
 	    boids.add(b);
 	  }
-	  
+
+	  /**
+	   * @return the layer TurtleBoids in the flock draw their current trails into, or null
+	   */
+	  public TrailLayer getTrailLayer() {
+		  return trailLayer;
+	  }
+
+	  /**
+	   * Sets the layer that TurtleBoids in the flock, and TurtleBoids added later, draw their current
+	   * trails into a segment at a time. run() ends drawing into the layer once the boids are drawn.
+	   * @param trailLayer   a TrailLayer, or null to have TurtleBoids redraw their current trails every frame
+	   */
+	  public void setTrailLayer(TrailLayer trailLayer) {
+		  this.trailLayer = trailLayer;
+		  for (Boid b : boids) {
+			  if (b instanceof TurtleBoid) ((TurtleBoid) b).setTrailLayer(trailLayer);
+		  }
+	  }
+
+	  /**
+	   * @return the bounds shared by all the boids in the flock, null until a boid is added
+	   */
+	  public WorldBounds getWorld() {
+		  return world;
+	  }
+
+	  /**
+	   * Resizes the world of every boid in the flock, for instance when the display is resized.
+	   * @param width    new width of the world
+	   * @param height   new height of the world
+	   */
+	  public void setWorldSize(float width, float height) {
+		  if (null == world) world = new WorldBounds(width, height);
+		  else world.setSize(width, height);
+	  }
+
 	  public ArrayList<Boid> getBoids() {
 		  return boids;
 	  }
+
+	  /**
+	   * @return true if the flock uses a grid to find neighbors
+	   */
+	  public boolean isUseGrid() {
+		  return useGrid;
+	  }
+
+	  /**
+	   * @return the FixedTimestep that paces run(), null if the flock steps once per call
+	   */
+	  public FixedTimestep getTimestep() {
+		  return timestep;
+	  }
+
+	  /**
+	   * With a FixedTimestep, each call to run() simulates as many steps as fit in the time since
+	   * the last call (possibly none) and draws boids between their last two locations, so that boids
+	   * move at the same speed whatever the frame rate. Forces applied between calls to run()
+	   * act on each of those steps, and are dropped if there are none.
+	   * @param timestep   a FixedTimestep, or null to step once per call to run()
+	   */
+	  public void setTimestep(FixedTimestep timestep) {
+		  this.timestep = timestep;
+	  }
+
+	  /**
+	   * @return the FlockRenderer that draws the flock, null if each boid draws itself
+	   */
+	  public FlockRenderer getRenderer() {
+		  return renderer;
+	  }
+
+	  /**
+	   * Draws all the boids in one shape with a FlockRenderer after they have moved, instead of
+	   * calling render() for each boid as it moves. Boid.render() remains the fallback when renderer is null.
+	   * @param renderer   a FlockRenderer, or null to have each boid draw itself
+	   */
+	  public void setRenderer(FlockRenderer renderer) {
+		  this.renderer = renderer;
+	  }
+
+	  /**
+	   * @param useGrid   true if the flock should use a grid to find neighbors, false to check every boid against every other
+	   */
+	  public void setUseGrid(boolean useGrid) {
+		  this.useGrid = useGrid;
+	  }
 }
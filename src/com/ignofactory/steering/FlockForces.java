@@ -0,0 +1,151 @@
+package com.ignofactory.steering;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands forces computed once per frame on the animation thread to a FlockSimulation, which applies
+ * them before every step until the next frame's forces arrive. Install it once with
+ * FlockSimulation.setStepCommand(); after that, each frame calls begin(), adds forces and publish().
+ *
+ * Like the snapshots in FlockSimulation, three sets of forces rotate between the two threads (a triple
+ * buffer): the animation thread fills the back set and swaps it with the middle one, the simulation
+ * thread swaps its front set with the middle one whenever the middle one is fresh. Arrays are reused
+ * from frame to frame and only grow with the flock, so handing over forces allocates nothing.
+ */
+public class FlockForces implements Runnable {
+	/** flag set in middle when it holds forces the simulation has not taken */
+	static final int FRESH = 4;
+	/** the simulated flock, touched only by the simulation thread, in run() */
+	final FlockState state;
+	/** the three sets of forces */
+	final Forces[] slots;
+	/** index of the middle set, ORed with FRESH when it was published since the simulation last took it */
+	final AtomicInteger middle;
+	/** index of the set the animation thread fills */
+	int back;
+	/** index of the set the simulation applies */
+	int front;
+
+	/**
+	 * Forces for one frame: a force on each boid, points that single boids steer away from or towards,
+	 * and a point that every boid steers away from or towards.
+	 */
+	static class Forces {
+		/** number of boids with forces */
+		int count;
+		/** x and y of the force on each boid */
+		float[] force = new float[0];
+		/** number of single boid avoidances */
+		int avoidCount;
+		/** id of the boid for each avoidance */
+		int[] avoidIds = new int[0];
+		/** x and y of the point for each avoidance */
+		float[] avoidPoints = new float[0];
+		/** scaling factor of the steering force for each avoidance, negative to attract */
+		float[] avoidForces = new float[0];
+		/** point every boid steers away from or towards */
+		float allX, allY;
+		/** scaling factor of the steering force towards (allX, allY), 0 for none */
+		float allForce;
+	}
+
+	/**
+	 * @param state   the FlockState of the FlockSimulation the forces are for
+	 */
+	public FlockForces(FlockState state) {
+		this.state = state;
+		slots = new Forces[] { new Forces(), new Forces(), new Forces() };
+		front = 0;
+		middle = new AtomicInteger(1);
+		back = 2;
+	}
+
+	/**
+	 * Starts a new set of forces, with no forces on any boid. Called by the animation thread.
+	 * @param n   number of boids, usually the size of the latest snapshot
+	 */
+	public void begin(int n) {
+		Forces f = slots[back];
+		if (f.force.length < 2 * n) f.force = new float[2 * n];
+		Arrays.fill(f.force, 0, 2 * n, 0);
+		f.count = n;
+		f.avoidCount = 0;
+		f.allForce = 0;
+	}
+
+	/**
+	 * Adds a force to boid i, as FlockState.applyForce() would at every step.
+	 * @param i    id of the boid, less than the n passed to begin()
+	 * @param fx   x-component of the force
+	 * @param fy   y-component of the force
+	 */
+	public void addForce(int i, float fx, float fy) {
+		float[] force = slots[back].force;
+		force[2 * i] += fx;
+		force[2 * i + 1] += fy;
+	}
+
+	/**
+	 * Steers boid i away from a point at every step, as FlockState.avoid() does.
+	 * @param i       id of the boid
+	 * @param px      x-coordinate of the point
+	 * @param py      y-coordinate of the point
+	 * @param force   scaling factor for the steering force, negative to attract
+	 */
+	public void avoid(int i, float px, float py, float force) {
+		Forces f = slots[back];
+		int k = f.avoidCount;
+		if (f.avoidIds.length == k) {
+			int size = Math.max(16, 2 * k);
+			f.avoidIds = Arrays.copyOf(f.avoidIds, size);
+			f.avoidPoints = Arrays.copyOf(f.avoidPoints, 2 * size);
+			f.avoidForces = Arrays.copyOf(f.avoidForces, size);
+		}
+		f.avoidIds[k] = i;
+		f.avoidPoints[2 * k] = px;
+		f.avoidPoints[2 * k + 1] = py;
+		f.avoidForces[k] = force;
+		f.avoidCount = k + 1;
+	}
+
+	/**
+	 * Steers every boid away from a point at every step, such as towards the mouse with a negative force.
+	 * @param px      x-coordinate of the point
+	 * @param py      y-coordinate of the point
+	 * @param force   scaling factor for the steering force, negative to attract, 0 for none
+	 */
+	public void avoidAll(float px, float py, float force) {
+		Forces f = slots[back];
+		f.allX = px;
+		f.allY = py;
+		f.allForce = force;
+	}
+
+	/**
+	 * Hands the forces added since begin() to the simulation. Called by the animation thread.
+	 */
+	public void publish() {
+		back = middle.getAndSet(back | FRESH) & 3;
+	}
+
+	/**
+	 * Applies the latest published forces to the FlockState. Run by the simulation thread before each step.
+	 */
+	public void run() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & 3;
+		}
+		Forces f = slots[front];
+		int n = Math.min(f.count, state.size());
+		float[] force = f.force;
+		for (int i = 0; i < n; i++) {
+			state.applyForce(i, force[2 * i], force[2 * i + 1]);
+			if (0 != f.allForce) state.avoid(i, f.allX, f.allY, f.allForce);
+		}
+		for (int k = 0; k < f.avoidCount; k++) {
+			int i = f.avoidIds[k];
+			if (i < n) state.avoid(i, f.avoidPoints[2 * k], f.avoidPoints[2 * k + 1], f.avoidForces[k]);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package com.ignofactory.steering;
+
+import java.util.ArrayList;
+
+import processing.core.*;
+
+/**
+ * Draws a flock in a PApplet or PGraphics, keeping Processing out of the simulation:
+ * each boid is drawn as in Boid.render(), a triangle rotated in the direction of its velocity.
+ *
+ * Instead of setting the style, pushing a matrix, translating, rotating and drawing a shape for
+ * each boid, FlockRenderer calculates the rotated corners of every triangle into one float array
+ * and draws them all in a single beginShape(TRIANGLES)...endShape(), with one change of style
+ * and no matrix operations. Rotation comes from the normalized velocity, so no angles or
+ * trigonometric functions are needed except for snapshots, which store headings.
+ * Draws FlockStates, FlockSnapshots and lists of Boids, see Flock.setRenderer().
+ */
+public class FlockRenderer {
+	/** size factor, as in Boid */
+	float r = 2.0f;
+	int fillColor = 0xFFFFFFFF;
+	int strokeColor = 0xFF000000;
+	float weight = 1.0f;
+	/** scratch array for interpolated locations */
+	float[] point = new float[2];
+	/** x and y of three corners for each boid in the current batch */
+	float[] verts = new float[0];
+	/** number of floats used in verts */
+	int size;
+
+	public FlockRenderer() {
+	}
+
+	/**
+	 * @param parent   PApplet to draw in
+	 * @param state    flock to draw
+	 */
+	public void render(PApplet parent, FlockState state) {
+		render(parent.g, state);
+	}
+
+	/**
+	 * @param pg      PGraphics to draw in, between beginDraw() and endDraw() if it is offscreen
+	 * @param state   flock to draw
+	 */
+	public void render(PGraphics pg, FlockState state) {
+		float[] x = state.x;
+		float[] y = state.y;
+		float[] vx = state.vx;
+		float[] vy = state.vy;
+		begin(state.count);
+		for (int i = 0; i < state.count; i++) {
+			addBoid(x[i], y[i], vx[i], vy[i]);
+		}
+		end(pg);
+	}
+
+	/**
+	 * Draws each boid between its last two locations, see FlockState.interpolate().
+	 * @param pg      PGraphics to draw in, between beginDraw() and endDraw() if it is offscreen
+	 * @param state   flock to draw
+	 * @param alpha   0 for the locations before the last step, 1 for the current locations, see FixedTimestep.getAlpha()
+	 */
+	public void render(PGraphics pg, FlockState state, float alpha) {
+		float[] vx = state.vx;
+		float[] vy = state.vy;
+		begin(state.count);
+		for (int i = 0; i < state.count; i++) {
+			state.interpolate(i, alpha, point);
+			addBoid(point[0], point[1], vx[i], vy[i]);
+		}
+		end(pg);
+	}
+
+	/**
+	 * Draws a snapshot published by a FlockSimulation.
+	 * @param parent     PApplet to draw in
+	 * @param snapshot   flock to draw
+	 */
+	public void render(PApplet parent, FlockSnapshot snapshot) {
+		render(parent.g, snapshot);
+	}
+
+	/**
+	 * Draws a snapshot published by a FlockSimulation.
+	 * @param pg         PGraphics to draw in, between beginDraw() and endDraw() if it is offscreen
+	 * @param snapshot   flock to draw
+	 */
+	public void render(PGraphics pg, FlockSnapshot snapshot) {
+		float[] x = snapshot.x;
+		float[] y = snapshot.y;
+		float[] heading = snapshot.heading;
+		begin(snapshot.count);
+		for (int i = 0; i < snapshot.count; i++) {
+			addBoid(x[i], y[i], (float) Math.cos(heading[i]), (float) Math.sin(heading[i]));
+		}
+		end(pg);
+	}
+
+	/**
+	 * Draws the visible boids in a list, between their last two locations, see Boid.render(float).
+	 * Does not draw anything else a subclass of Boid may draw, such as TurtleBoid trails.
+	 * @param pg      PGraphics to draw in, between beginDraw() and endDraw() if it is offscreen
+	 * @param boids   boids to draw
+	 * @param alpha   0 for the locations before the last step, 1 for the current locations
+	 */
+	public void render(PGraphics pg, ArrayList<Boid> boids, float alpha) {
+		int n = boids.size();
+		begin(n);
+		for (int i = 0; i < n; i++) {
+			Boid b = boids.get(i);
+			if (!b.isVisible) continue;
+			b.interpolate(alpha, point);
+			addBoid(point[0], point[1], b.vel.x, b.vel.y);
+		}
+		end(pg);
+	}
+
+	/**
+	 * Starts a batch, making room for n boids.
+	 */
+	void begin(int n) {
+		if (verts.length < n * 6) verts = new float[n * 6];
+		size = 0;
+	}
+
+	/**
+	 * Adds the corners of a triangle pointing along (dx, dy) to the batch: the same triangle
+	 * that Boid.render() draws, rotated by the heading of (dx, dy) plus 90 degrees.
+	 * @param x    x-coordinate of boid
+	 * @param y    y-coordinate of boid
+	 * @param dx   x-component of direction, usually velocity
+	 * @param dy   y-component of direction, usually velocity
+	 */
+	void addBoid(float x, float y, float dx, float dy) {
+		float len = (float) Math.sqrt(dx * dx + dy * dy);
+		float ux, uy;
+		if (len > 0) {
+			ux = dx / len;
+			uy = dy / len;
+		}
+		else {
+			// PVector.heading() of a zero vector is 0
+			ux = 1;
+			uy = 0;
+		}
+		float r2 = r * 2;
+		float[] v = verts;
+		int k = size;
+		// nose at (0, -2r), rotated
+		v[k++] = x + r2 * ux;
+		v[k++] = y + r2 * uy;
+		// left corner at (-r, 2r)
+		v[k++] = x + r * uy - r2 * ux;
+		v[k++] = y - r * ux - r2 * uy;
+		// right corner at (r, 2r)
+		v[k++] = x - r * uy - r2 * ux;
+		v[k++] = y + r * ux - r2 * uy;
+		size = k;
+	}
+
+	/**
+	 * Draws the batch in one shape.
+	 */
+	void end(PGraphics pg) {
+		if (0 == size) return;
+		pg.fill(fillColor);
+		pg.stroke(strokeColor);
+		pg.strokeWeight(weight);
+		pg.beginShape(PApplet.TRIANGLES);
+		float[] v = verts;
+		for (int k = 0; k < size; k += 2) {
+			pg.vertex(v[k], v[k + 1]);
+		}
+		pg.endShape();
+	}
+
+	/**
+	 * @param fillColor   fill color of boids, a Processing ARGB color
+	 */
+	public void setFillColor(int fillColor) {
+		this.fillColor = fillColor;
+	}
+
+	/**
+	 * @param strokeColor   stroke color of boids, a Processing ARGB color
+	 */
+	public void setStrokeColor(int strokeColor) {
+		this.strokeColor = strokeColor;
+	}
+
+	/**
+	 * @param weight   stroke weight
+	 */
+	public void setWeight(float weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * @param r   size factor of boids, as in Boid
+	 */
+	public void setSize(float r) {
+		this.r = r;
+	}
+}
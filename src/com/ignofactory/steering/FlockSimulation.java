@@ -0,0 +1,211 @@
+package com.ignofactory.steering;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Steps a FlockState on its own thread at a fixed rate and hands snapshots of it to a single 
+ * reader, typically the Processing animation thread, without locks. 
+ * 
+ * Three FlockSnapshots rotate between the simulation thread and the reader (a triple buffer): 
+ * the simulation writes the back snapshot and swaps it with the middle one, the reader swaps
+ * its front snapshot with the middle one whenever the middle one is fresh. Both swaps are a single 
+ * AtomicInteger.getAndSet(), so neither thread ever waits for the other: a slow draw() only skips 
+ * snapshots, and the simulation advances the same number of steps per second however long drawing takes.
+ * 
+ * Once the thread is started it owns the FlockState. Other threads should change the flock 
+ * by passing a Runnable to post(), which the simulation runs before its next step.
+ */
+public class FlockSimulation implements Runnable {
+	/** flag set in middle when it holds a snapshot the reader has not taken */
+	static final int FRESH = 4;
+	/** the simulated flock, owned by the simulation thread while it runs */
+	final FlockState state;
+	/** the three snapshots */
+	final FlockSnapshot[] slots;
+	/** index of the middle snapshot, ORed with FRESH when it was published since the reader last took it */
+	final AtomicInteger middle;
+	/** index of the snapshot the simulation writes */
+	int back;
+	/** index of the snapshot the reader holds */
+	int front;
+	/** changes to the flock from other threads, run before the next step */
+	final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+	/** run before every step until replaced, see setStepCommand(), only touched by the simulation thread */
+	Runnable stepCommand;
+	/** steps per second */
+	volatile float rate;
+	/** nanoseconds per step */
+	volatile long period;
+	/** most steps to run to catch up after the thread falls behind, the rest are skipped */
+	int maxCatchUp = 4;
+	/** number of steps run so far */
+	volatile long steps = 0;
+	volatile boolean running = false;
+	Thread thread;
+
+	/**
+	 * @param state   a FlockState, which should not be touched by other threads once start() is called
+	 * @param rate    steps per second, 30 if rate is not greater than 0
+	 */
+	public FlockSimulation(FlockState state, float rate) {
+		this.state = state;
+		setRate(rate > 0 ? rate : 30);
+		slots = new FlockSnapshot[] { new FlockSnapshot(), new FlockSnapshot(), new FlockSnapshot() };
+		// the reader starts out with a snapshot of the initial state
+		front = 0;
+		slots[front].copyFrom(state, 0);
+		middle = new AtomicInteger(1);
+		back = 2;
+	}
+
+	/**
+	 * Starts stepping the flock on a new daemon thread.
+	 */
+	public synchronized void start() {
+		if (running) return;
+		running = true;
+		thread = new Thread(this, "FlockSimulation");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the simulation thread and waits for it to finish its current step. 
+	 * Afterwards the FlockState can be used by the calling thread again.
+	 */
+	public synchronized void stop() {
+		if (!running) return;
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Runs steps at the fixed rate until stop() is called. When the thread falls behind, it runs up to 
+	 * maxCatchUp steps back to back, then drops the rest of the backlog rather than trying to catch up forever.
+	 */
+	public void run() {
+		long next = System.nanoTime();
+		while (running) {
+			long now = System.nanoTime();
+			if (now < next) {
+				LockSupport.parkNanos(next - now);
+				continue;
+			}
+			int n = 0;
+			while (now >= next && n < maxCatchUp && running) {
+				step();
+				next += period;
+				n++;
+			}
+			if (now >= next) next = now + period;
+		}
+	}
+
+	/**
+	 * Runs posted commands, steps the flock once and publishes a snapshot. Called by the simulation thread;
+	 * may also be called directly, from one thread at a time, when the thread is not running.
+	 */
+	public void step() {
+		Runnable cmd;
+		while (null != (cmd = commands.poll())) {
+			cmd.run();
+		}
+		if (null != stepCommand) stepCommand.run();
+		state.step();
+		long s = steps + 1;
+		slots[back].copyFrom(state, s);
+		steps = s;
+		back = middle.getAndSet(back | FRESH) & 3;
+	}
+
+	/**
+	 * Returns the most recent snapshot. Must always be called from the same thread. 
+	 * The snapshot returned does not change until the next call to latest(), 
+	 * after which it may be handed back to the simulation and overwritten.
+	 * @return the most recently published snapshot of the flock
+	 */
+	public FlockSnapshot latest() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & 3;
+		}
+		return slots[front];
+	}
+
+	/**
+	 * Queues a change to the flock, to be run on the simulation thread before the next step.
+	 * @param command   a Runnable that changes the FlockState
+	 */
+	public void post(Runnable command) {
+		commands.add(command);
+	}
+
+	/**
+	 * Sets a change to the flock that is run on the simulation thread before every step, until it is
+	 * replaced, typically forces computed once per frame by the animation thread, such as optical flow
+	 * or wind. Applying them at every step, rather than once, makes their effect independent of the
+	 * number of steps per frame. The command is installed through post(), after the commands already queued.
+	 * @param command   a Runnable that changes the FlockState before each step, such as by calling 
+	 *                  FlockState.applyForce() or a FlockForces, which is set once and reused, or null to stop
+	 */
+	public void setStepCommand(final Runnable command) {
+		post(new Runnable() {
+			public void run() {
+				stepCommand = command;
+			}
+		});
+	}
+
+	/**
+	 * @return the FlockState, which only the simulation thread should touch while it is running
+	 */
+	public FlockState getState() {
+		return state;
+	}
+
+	/**
+	 * @return true if the simulation thread is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the number of steps run so far
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return steps per second
+	 */
+	public float getRate() {
+		return rate;
+	}
+
+	/**
+	 * @param rate   steps per second, values less than or equal to 0 are ignored
+	 */
+	public void setRate(float rate) {
+		if (rate <= 0) return;
+		this.rate = rate;
+		this.period = (long) (1.0e9 / rate);
+	}
+
+	/**
+	 * @param maxCatchUp   most steps to run back to back when the simulation falls behind
+	 */
+	public void setMaxCatchUp(int maxCatchUp) {
+		this.maxCatchUp = Math.max(1, maxCatchUp);
+	}
+
+}
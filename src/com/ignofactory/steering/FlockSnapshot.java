@@ -0,0 +1,96 @@
+package com.ignofactory.steering;
+
+/**
+ * Locations and headings of the boids in a FlockState at one step of the simulation,
+ * published by a FlockSimulation for drawing on another thread. 
+ * A snapshot is written only by the simulation thread, and only while no reader holds it, 
+ * see FlockSimulation.latest(). Readers should treat the arrays as read only.
+ */
+public class FlockSnapshot {
+	/** number of boids */
+	int count;
+	/** step of the simulation the snapshot was taken at */
+	long step;
+	float[] x = new float[0];
+	float[] y = new float[0];
+	/** direction of velocity, in radians */
+	float[] heading = new float[0];
+
+	public FlockSnapshot() {
+	}
+
+	/**
+	 * Copies locations and headings from state, growing the arrays if the flock has grown.
+	 * @param state   a FlockState
+	 * @param step    the step number to record
+	 */
+	void copyFrom(FlockState state, long step) {
+		int n = state.count;
+		if (x.length < n) {
+			x = new float[n];
+			y = new float[n];
+			heading = new float[n];
+		}
+		System.arraycopy(state.x, 0, x, 0, n);
+		System.arraycopy(state.y, 0, y, 0, n);
+		float[] vx = state.vx;
+		float[] vy = state.vy;
+		for (int i = 0; i < n; i++) {
+			heading[i] = (float) Math.atan2(vy[i], vx[i]);
+		}
+		this.count = n;
+		this.step = step;
+	}
+
+	/**
+	 * @return the number of boids
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return the step of the simulation at which this snapshot was taken
+	 */
+	public long getStep() {
+		return step;
+	}
+
+	public float getX(int i) {
+		return x[i];
+	}
+
+	public float getY(int i) {
+		return y[i];
+	}
+
+	/**
+	 * @param i   index of a boid
+	 * @return    direction of velocity of boid i, in radians
+	 */
+	public float getHeading(int i) {
+		return heading[i];
+	}
+
+	/**
+	 * @return the x-coordinates of all boids, valid from index 0 to size() - 1
+	 */
+	public float[] getXs() {
+		return x;
+	}
+
+	/**
+	 * @return the y-coordinates of all boids, valid from index 0 to size() - 1
+	 */
+	public float[] getYs() {
+		return y;
+	}
+
+	/**
+	 * @return the headings of all boids in radians, valid from index 0 to size() - 1
+	 */
+	public float[] getHeadings() {
+		return heading;
+	}
+
+}
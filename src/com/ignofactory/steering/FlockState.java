@@ -0,0 +1,920 @@
+package com.ignofactory.steering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A flock stored as a structure of arrays: location, velocity, acceleration and the per-boid
+ * weights and radii of the flocking rules are kept in parallel float arrays indexed by boid id,
+ * so the steering loop walks contiguous memory instead of chasing references through Boid objects.
+ * Uses the same rules as Boid (separation, alignment, cohesion, wraparound on a torus when
+ * mapToTorus is true) and a BoidGrid to find neighbors.
+ *
+ * Unlike Flock, where each boid moves as soon as its steering is calculated, flock() calculates
+ * steering for every boid from the same locations and velocities before update() moves any of them,
+ * so results do not depend on the order of the boids.
+ *
+ * Locations and velocities are double buffered: update() writes the next frame into back buffers
+ * and then swaps them with the front buffers, so arrays returned by getXs() etc. change from frame to frame.
+ * Between steps, the back buffers hold the locations before the last step, which interpolate() uses
+ * to find locations between steps when a FixedTimestep runs several steps per rendered frame, or none.
+ * When parallel is true, flock() and update() split the flock into bands of boids and run them on the
+ * common ForkJoinPool. Since every boid reads only the previous frame, the results are the same as in
+ * sequential mode, regardless of the number of threads.
+ *
+ * When neighborSkin is greater than 0, each boid keeps a list of the boids within the largest
+ * neighbor radius plus neighborSkin (Verlet neighbor lists). The lists are only rebuilt after some boid
+ * has moved more than half the skin since the last rebuild, and are used in place of the grid in between.
+ * Since boids move at most maxspeed in a frame, a skin of a few times maxspeed lets dense flocks
+ * skip most rebuilds.
+ *
+ * Use FlockState directly for large flocks that don't need Boid instances, or use StateFlock
+ * to run a list of Boids (including TurtleBoids) through it.
+ * 
+ * FlockState uses no Processing classes: the world is a WorldBounds and random numbers come from 
+ * an injectable java.util.Random, so flocks can be simulated without a display, e.g. in batch runs.
+ * Draw it with a FlockRenderer.
+ */
+public class FlockState {
+	/** number of boids */
+	int count;
+	/** bounds of the world, usually the display */
+	WorldBounds world;
+	/** source of random numbers */
+	Random rand;
+	// dimensions of the world, copied from world at the start of each step
+	float width;
+	float height;
+	// vars for calculating distances on torus
+	float halfW;
+	float halfH;
+	/** size factor, as in Boid, used for wraparound at display edges */
+	float r = 2.0f;
+	/** nearest points are found on a torus when true */
+	boolean mapToTorus = true;
+	// location, velocity, acceleration
+	float[] x, y;
+	float[] vx, vy;
+	float[] ax, ay;
+	// back buffers for location and velocity, swapped with the front buffers by update()
+	float[] x2, y2;
+	float[] vx2, vy2;
+	// limits and mass
+	float[] maxspeed, maxforce, mass;
+	// weights of flocking rules
+	float[] sepWeight, aliWeight, cohWeight;
+	// radii of flocking rules
+	float[] sepDist, aliDist, cohDist;
+	/** spatial index used to find neighbors */
+	BoidGrid grid;
+	/** use the grid to find neighbors? if false, every boid checks every other */
+	boolean useGrid = true;
+	// scratch storage for neighbor queries
+	int[] hits = new int[0];
+	/** run flock() and update() on a ForkJoinPool? */
+	boolean parallel = false;
+	/** number of boids in each parallel task, set by runParallel() */
+	int band;
+	/** flocks smaller than this always run sequentially */
+	int minParallel = 256;
+	// scratch storage for neighbor queries in parallel tasks, one array per worker thread
+	final ThreadLocal<int[]> workerHits = new ThreadLocal<int[]>();
+	/** distance beyond the largest neighbor radius kept in neighbor lists, 0 turns neighbor lists off */
+	float neighborSkin = 0;
+	// neighbor lists: ids of the neighbors of boid i are listIds[listStart[i]] to listIds[listStart[i + 1] - 1]
+	int[] listStart = new int[0];
+	int[] listIds = new int[0];
+	// locations when the lists were last built
+	float[] listX = new float[0];
+	float[] listY = new float[0];
+	/** distance within which neighbors were listed */
+	float listCutoff;
+	/** number of boids when the lists were built, -1 if the lists are not valid, as after add(), remove() or load() */
+	int listCount = -1;
+	/** number of times the neighbor lists have been rebuilt */
+	int listRebuilds = 0;
+
+	/**
+	 * @param width    width of the display
+	 * @param height   height of the display
+	 */
+	public FlockState(float width, float height) {
+		this(new WorldBounds(width, height), 256);
+	}
+
+	/**
+	 * @param world      bounds of the world
+	 * @param capacity   initial number of boids to allocate storage for
+	 */
+	public FlockState(WorldBounds world, int capacity) {
+		this(world, capacity, new Random());
+	}
+
+	/**
+	 * @param world      bounds of the world
+	 * @param capacity   initial number of boids to allocate storage for
+	 * @param rand       source of random numbers
+	 */
+	public FlockState(WorldBounds world, int capacity, Random rand) {
+		setWorld(world);
+		this.rand = rand;
+		allocate(Math.max(capacity, 1));
+		grid = new BoidGrid();
+	}
+
+	void allocate(int capacity) {
+		x = grow(x, capacity);
+		y = grow(y, capacity);
+		vx = grow(vx, capacity);
+		vy = grow(vy, capacity);
+		ax = grow(ax, capacity);
+		ay = grow(ay, capacity);
+		x2 = grow(x2, capacity);
+		y2 = grow(y2, capacity);
+		vx2 = grow(vx2, capacity);
+		vy2 = grow(vy2, capacity);
+		maxspeed = grow(maxspeed, capacity);
+		maxforce = grow(maxforce, capacity);
+		mass = grow(mass, capacity);
+		sepWeight = grow(sepWeight, capacity);
+		aliWeight = grow(aliWeight, capacity);
+		cohWeight = grow(cohWeight, capacity);
+		sepDist = grow(sepDist, capacity);
+		aliDist = grow(aliDist, capacity);
+		cohDist = grow(cohDist, capacity);
+	}
+
+	static float[] grow(float[] arr, int capacity) {
+		if (null == arr) return new float[capacity];
+		return Arrays.copyOf(arr, capacity);
+	}
+
+	/**
+	 * Makes sure there is storage for at least n boids.
+	 * @param n   number of boids
+	 */
+	public void ensureCapacity(int n) {
+		if (n > x.length) allocate(Math.max(n, x.length * 2));
+	}
+
+	/**
+	 * Adds a boid with the same default weights and radii as a new Boid.
+	 * @param px   x-coordinate of location
+	 * @param py   y-coordinate of location
+	 * @param pvx  x-component of velocity
+	 * @param pvy  y-component of velocity
+	 * @param ms   maximum speed
+	 * @param mf   maximum force
+	 * @return     id of the new boid
+	 */
+	public int add(float px, float py, float pvx, float pvy, float ms, float mf) {
+		ensureCapacity(count + 1);
+		int i = count++;
+		// the neighbor lists don't hold the new boid
+		listCount = -1;
+		x[i] = px;
+		y[i] = py;
+		x2[i] = px;
+		y2[i] = py;
+		vx[i] = pvx;
+		vy[i] = pvy;
+		ax[i] = 0;
+		ay[i] = 0;
+		maxspeed[i] = ms;
+		maxforce[i] = mf;
+		mass[i] = 1.0f;
+		sepWeight[i] = 1.5f;
+		aliWeight[i] = 1.0f;
+		cohWeight[i] = 1.0f;
+		sepDist[i] = 24.0f;
+		aliDist[i] = 80.0f;
+		cohDist[i] = 120.0f;
+		return i;
+	}
+
+	/**
+	 * Adds a boid with a random initial velocity, as a new Boid gets.
+	 * @param px   x-coordinate of location
+	 * @param py   y-coordinate of location
+	 * @param ms   maximum speed
+	 * @param mf   maximum force
+	 * @return     id of the new boid
+	 */
+	public int add(float px, float py, float ms, float mf) {
+		return add(px, py, rand.nextFloat() * 2 - 1, rand.nextFloat() * 2 - 1, ms, mf);
+	}
+
+	/**
+	 * Removes a boid by moving the last boid into its slot, so the id of the last boid changes to i.
+	 * @param i   id of the boid to remove
+	 */
+	public void remove(int i) {
+		int last = --count;
+		// ids in the neighbor lists are out of date, even if an add() restores the count
+		listCount = -1;
+		if (i == last) return;
+		x[i] = x[last];
+		y[i] = y[last];
+		x2[i] = x2[last];
+		y2[i] = y2[last];
+		vx[i] = vx[last];
+		vy[i] = vy[last];
+		ax[i] = ax[last];
+		ay[i] = ay[last];
+		maxspeed[i] = maxspeed[last];
+		maxforce[i] = maxforce[last];
+		mass[i] = mass[last];
+		sepWeight[i] = sepWeight[last];
+		aliWeight[i] = aliWeight[last];
+		cohWeight[i] = cohWeight[last];
+		sepDist[i] = sepDist[last];
+		aliDist[i] = aliDist[last];
+		cohDist[i] = cohDist[last];
+	}
+
+	/**
+	 * Removes all boids.
+	 */
+	public void clear() {
+		count = 0;
+		listCount = -1;
+	}
+
+	/**
+	 * Copies the state of a list of boids into the arrays, boid i in the list gets id i.
+	 * Acceleration already accumulated by the boids (external forces) is copied, too.
+	 * @param boids   a list of Boids
+	 */
+	public void load(ArrayList<Boid> boids) {
+		int n = boids.size();
+		ensureCapacity(n);
+		count = n;
+		// the boids may be new or in a new order, whatever their number
+		listCount = -1;
+		for (int i = 0; i < n; i++) {
+			Boid b = boids.get(i);
+			x[i] = b.loc.x;
+			y[i] = b.loc.y;
+			x2[i] = b.prevLoc.x;
+			y2[i] = b.prevLoc.y;
+			vx[i] = b.vel.x;
+			vy[i] = b.vel.y;
+			ax[i] = b.acc.x;
+			ay[i] = b.acc.y;
+			maxspeed[i] = b.maxspeed;
+			maxforce[i] = b.maxforce;
+			mass[i] = b.mass;
+			sepWeight[i] = b.separationWeight;
+			aliWeight[i] = b.alignmentWeight;
+			cohWeight[i] = b.cohesionWeight;
+			sepDist[i] = b.separationDistance;
+			aliDist[i] = b.alignmentDistance;
+			cohDist[i] = b.cohesionDistance;
+		}
+	}
+
+	/**
+	 * Flocks, moves and wraps all the boids.
+	 */
+	public void step() {
+		flock();
+		update();
+		borders();
+	}
+
+	/**
+	 * Adds separation, alignment and cohesion steering to the acceleration of every boid.
+	 */
+	public void flock() {
+		syncWorld();
+		// an empty flock has nothing to steer, and a reach of 0 would make a grid of tiny cells
+		if (0 == count) return;
+		float reach = maxReach();
+		if (neighborSkin > 0) {
+			if (!listsAreValid(reach)) rebuildLists(reach);
+		}
+		else if (useGrid) {
+			grid.rebuild(x, y, count, width, height, reach, mapToTorus);
+		}
+		if (isRunParallel()) {
+			runParallel(true);
+		}
+		else {
+			if (hits.length < count) hits = new int[x.length];
+			flock(0, count, hits);
+		}
+	}
+
+	/**
+	 * @return the largest separation, alignment or cohesion distance in the flock
+	 */
+	float maxReach() {
+		float reach = 0;
+		for (int i = 0; i < count; i++) {
+			if (sepDist[i] > reach) reach = sepDist[i];
+			if (aliDist[i] > reach) reach = aliDist[i];
+			if (cohDist[i] > reach) reach = cohDist[i];
+		}
+		return reach;
+	}
+
+	/**
+	 * The lists still hold every neighbor within reach as long as no two boids can have closed
+	 * the distance between listCutoff and reach, i.e., no boid has moved more than half of that.
+	 * @param reach   the largest neighbor radius in the flock
+	 * @return        true if the neighbor lists can be used for this frame
+	 */
+	boolean listsAreValid(float reach) {
+		if (listCount != count) return false;
+		float slack = (listCutoff - reach) * 0.5f;
+		if (slack <= 0) return false;
+		float slack2 = slack * slack;
+		for (int i = 0; i < count; i++) {
+			float dx = x[i] - listX[i];
+			float dy = y[i] - listY[i];
+			if (mapToTorus) {
+				// a boid that wrapped around the display has not moved far on the torus
+				if (dx > halfW) dx -= width;
+				else if (dx < -halfW) dx += width;
+				if (dy > halfH) dy -= height;
+				else if (dy < -halfH) dy += height;
+			}
+			if (dx * dx + dy * dy > slack2) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Lists, for every boid, the ids of boids within reach + neighborSkin, using the grid to find candidates.
+	 * @param reach   the largest neighbor radius in the flock
+	 */
+	void rebuildLists(float reach) {
+		float cutoff = reach + neighborSkin;
+		float cutoff2 = cutoff * cutoff;
+		if (hits.length < count) hits = new int[x.length];
+		if (listStart.length < count + 1) listStart = new int[x.length + 1];
+		if (listX.length < count) {
+			listX = new float[x.length];
+			listY = new float[x.length];
+		}
+		if (useGrid) grid.rebuild(x, y, count, width, height, cutoff, mapToTorus);
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			int n;
+			if (useGrid) {
+				n = grid.query(x[i], y[i], hits);
+			}
+			else {
+				n = count;
+				for (int k = 0; k < n; k++) hits[k] = k;
+			}
+			listStart[i] = total;
+			float px = x[i];
+			float py = y[i];
+			for (int k = 0; k < n; k++) {
+				int j = hits[k];
+				if (j == i) continue;
+				float dx = x[j] - px;
+				float dy = y[j] - py;
+				if (mapToTorus) {
+					if (dx > halfW) dx -= width;
+					else if (dx < -halfW) dx += width;
+					if (dy > halfH) dy -= height;
+					else if (dy < -halfH) dy += height;
+				}
+				if (dx * dx + dy * dy < cutoff2) {
+					if (total == listIds.length) listIds = Arrays.copyOf(listIds, Math.max(1024, total * 2));
+					listIds[total++] = j;
+				}
+			}
+			listX[i] = px;
+			listY[i] = py;
+		}
+		listStart[count] = total;
+		listCutoff = cutoff;
+		listCount = count;
+		listRebuilds++;
+	}
+
+	/**
+	 * Calculates steering for boids with ids from..to - 1. Reads locations and velocities
+	 * of all boids, writes only the accelerations of boids in the range.
+	 * @param from   first boid id
+	 * @param to     one past the last boid id
+	 * @param nbrs   scratch array with room for the whole flock
+	 */
+	void flock(int from, int to, int[] nbrs) {
+		for (int i = from; i < to; i++) {
+			if (neighborSkin > 0) {
+				steer(i, listIds, listStart[i], listStart[i + 1]);
+				continue;
+			}
+			int n;
+			if (useGrid) {
+				n = grid.query(x[i], y[i], nbrs);
+			}
+			else {
+				n = count;
+				for (int k = 0; k < n; k++) nbrs[k] = k;
+			}
+			steer(i, nbrs, 0, n);
+		}
+	}
+
+	/**
+	 * Calculates separation, alignment and cohesion for boid i from a list of candidate neighbors,
+	 * in a single pass, and adds the weighted forces to its acceleration. Follows Boid.flock() step by step.
+	 * @param i      id of the boid to steer
+	 * @param nbrs   ids of candidate neighbors, may include i
+	 * @param from   index in nbrs of the first candidate
+	 * @param to     one past the index in nbrs of the last candidate
+	 */
+	void steer(int i, int[] nbrs, int from, int to) {
+		float px = x[i];
+		float py = y[i];
+		float sepX = 0, sepY = 0;
+		float aliX = 0, aliY = 0;
+		float cohX = 0, cohY = 0;
+		int sepCount = 0, aliCount = 0, cohCount = 0;
+		float sd = sepDist[i];
+		float ad = aliDist[i];
+		float cd = cohDist[i];
+		float reach = Math.max(sd, Math.max(ad, cd));
+		float reach2 = reach * reach;
+		for (int k = from; k < to; k++) {
+			int j = nbrs[k];
+			float mx = x[j];
+			float my = y[j];
+			if (mapToTorus) {
+				// nearest image of the other boid on the torus, as in Boid.torusPoint()
+				if (mx < px - halfW) mx += width;
+				else if (mx > px + halfW) mx -= width;
+				if (my < py - halfH) my += height;
+				else if (my > py + halfH) my -= height;
+			}
+			float dx = px - mx;
+			float dy = py - my;
+			float d2 = dx * dx + dy * dy;
+			// skip ourselves and anything out of reach of all three rules before taking the square root
+			if (d2 <= 0 || d2 > reach2) continue;
+			float d = (float) Math.sqrt(d2);
+			if (d < sd) {
+				sepX += (dx / d) / d;
+				sepY += (dy / d) / d;
+				sepCount++;
+			}
+			if (d < ad) {
+				aliX += vx[j];
+				aliY += vy[j];
+				aliCount++;
+			}
+			if (d < cd) {
+				cohX += mx;
+				cohY += my;
+				cohCount++;
+			}
+		}
+		if (sepCount > 0) {
+			sepX /= sepCount;
+			sepY /= sepCount;
+		}
+		addSteering(i, sepX, sepY, sepWeight[i]);
+		if (aliCount > 0) {
+			aliX /= aliCount;
+			aliY /= aliCount;
+		}
+		addSteering(i, aliX, aliY, aliWeight[i]);
+		if (cohCount > 0) {
+			cohX /= cohCount;
+			cohY /= cohCount;
+			// steer towards the center, mapped to the torus again as Boid.steer() does
+			if (mapToTorus) {
+				if (cohX < px - halfW) cohX += width;
+				else if (cohX > px + halfW) cohX -= width;
+				if (cohY < py - halfH) cohY += height;
+				else if (cohY > py + halfH) cohY -= height;
+			}
+			addSteering(i, cohX - px, cohY - py, cohWeight[i]);
+		}
+	}
+
+	/**
+	 * Implements Reynolds: Steering = Desired - Velocity, where desired points along (dx, dy) at maxspeed,
+	 * then adds the steering force, limited to maxforce and multiplied by weight, to the acceleration of boid i.
+	 * Does nothing if (dx, dy) has zero length.
+	 */
+	void addSteering(int i, float dx, float dy, float weight) {
+		float m = (float) Math.sqrt(dx * dx + dy * dy);
+		if (m <= 0) return;
+		if (m != 1) {
+			dx /= m;
+			dy /= m;
+		}
+		float ms = maxspeed[i];
+		float sx = dx * ms - vx[i];
+		float sy = dy * ms - vy[i];
+		float mf = maxforce[i];
+		float sq = sx * sx + sy * sy;
+		if (sq > mf * mf) {
+			float s = (float) Math.sqrt(sq);
+			if (s != 1) {
+				sx /= s;
+				sy /= s;
+			}
+			sx *= mf;
+			sy *= mf;
+		}
+		ax[i] += sx * weight;
+		ay[i] += sy * weight;
+	}
+
+	/**
+	 * Adds acceleration to velocity, limits speed, moves and resets acceleration, for every boid.
+	 * New locations and velocities are written to the back buffers, which are then swapped with the front buffers.
+	 */
+	public void update() {
+		if (isRunParallel()) {
+			runParallel(false);
+		}
+		else {
+			update(0, count);
+		}
+		float[] tmp = x; x = x2; x2 = tmp;
+		tmp = y; y = y2; y2 = tmp;
+		tmp = vx; vx = vx2; vx2 = tmp;
+		tmp = vy; vy = vy2; vy2 = tmp;
+	}
+
+	/**
+	 * Moves boids with ids from..to - 1, reading the front buffers and writing the back buffers.
+	 */
+	void update(int from, int to) {
+		for (int i = from; i < to; i++) {
+			float svx = vx[i] + ax[i];
+			float svy = vy[i] + ay[i];
+			float ms = maxspeed[i];
+			float sq = svx * svx + svy * svy;
+			if (sq > ms * ms) {
+				float s = (float) Math.sqrt(sq);
+				if (s != 1) {
+					svx /= s;
+					svy /= s;
+				}
+				svx *= ms;
+				svy *= ms;
+			}
+			vx2[i] = svx;
+			vy2[i] = svy;
+			x2[i] = x[i] + svx;
+			y2[i] = y[i] + svy;
+			ax[i] = 0;
+			ay[i] = 0;
+		}
+	}
+
+	boolean isRunParallel() {
+		return parallel && count >= minParallel;
+	}
+
+	/**
+	 * Runs steering (steer == true) or movement for the whole flock on the common pool and waits for it to finish.
+	 */
+	void runParallel(boolean steer) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		// several bands per thread, so that dense and sparse parts of the flock even out
+		band = Math.max(64, count / (8 * pool.getParallelism()));
+		int bands = (count + band - 1) / band;
+		pool.invoke(new BandTask(0, bands, steer));
+	}
+
+	/**
+	 * Splits a range of bands of boids in half until a single band is left, then steers or moves it.
+	 */
+	class BandTask extends RecursiveAction {
+		int lo, hi;
+		boolean steer;
+
+		BandTask(int lo, int hi, boolean steer) {
+			this.lo = lo;
+			this.hi = hi;
+			this.steer = steer;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new BandTask(lo, mid, steer), new BandTask(mid, hi, steer));
+				return;
+			}
+			int from = lo * band;
+			int to = Math.min(count, from + band);
+			if (steer) {
+				int[] nbrs = workerHits.get();
+				if (null == nbrs || nbrs.length < count) {
+					nbrs = new int[x.length];
+					workerHits.set(nbrs);
+				}
+				flock(from, to, nbrs);
+			}
+			else {
+				update(from, to);
+			}
+		}
+	}
+
+	/**
+	 * Wraps boids that leave the display around to the opposite edge.
+	 */
+	public void borders() {
+		syncWorld();
+		for (int i = 0; i < count; i++) {
+			if (x[i] < -r) x[i] = width + r;
+			if (y[i] < -r) y[i] = height + r;
+			if (x[i] > width + r) x[i] = -r;
+			if (y[i] > height + r) y[i] = -r;
+		}
+	}
+
+	/**
+	 * Interpolates between the location of boid i before the last step and its current location. 
+	 * If the boid wrapped around the display in the last step, steps back along the velocity instead.
+	 * @param i       id of a boid
+	 * @param alpha   0 for the location before the last step, 1 for the current location
+	 * @param out     caller-owned array of at least 2 floats, receives {x, y}
+	 */
+	public void interpolate(int i, float alpha, float[] out) {
+		float dx = x[i] - x2[i];
+		float dy = y[i] - y2[i];
+		if (dx > halfW || dx < -halfW || dy > halfH || dy < -halfH) {
+			out[0] = x[i] - (1 - alpha) * vx[i];
+			out[1] = y[i] - (1 - alpha) * vy[i];
+		}
+		else {
+			out[0] = x2[i] + alpha * dx;
+			out[1] = y2[i] + alpha * dy;
+		}
+	}
+
+	/**
+	 * Adds a force, divided by mass, to the acceleration of boid i.
+	 */
+	public void applyForce(int i, float fx, float fy) {
+		ax[i] += fx / mass[i];
+		ay[i] += fy / mass[i];
+	}
+
+	/**
+	 * Steers boid i away from a point, or towards it if force is negative, as Boid.avoid() does.
+	 * On a torus, steers towards or away from the nearest image of the point.
+	 * @param i       id of the boid
+	 * @param px      x-coordinate of the point
+	 * @param py      y-coordinate of the point
+	 * @param force   scaling factor for the steering force, negative to attract
+	 */
+	public void avoid(int i, float px, float py, float force) {
+		if (mapToTorus) {
+			if (px < x[i] - halfW) px += width;
+			else if (px > x[i] + halfW) px -= width;
+			if (py < y[i] - halfH) py += height;
+			else if (py > y[i] + halfH) py -= height;
+		}
+		addSteering(i, px - x[i], py - y[i], -force);
+	}
+
+	/**
+	 * Sets the separation, alignment and cohesion distances of every boid.
+	 */
+	public void setDistances(float separation, float alignment, float cohesion) {
+		for (int i = 0; i < count; i++) {
+			sepDist[i] = separation;
+			aliDist[i] = alignment;
+			cohDist[i] = cohesion;
+		}
+	}
+
+	/**
+	 * Sets the separation, alignment and cohesion weights of every boid.
+	 */
+	public void setWeights(float separation, float alignment, float cohesion) {
+		for (int i = 0; i < count; i++) {
+			sepWeight[i] = separation;
+			aliWeight[i] = alignment;
+			cohWeight[i] = cohesion;
+		}
+	}
+
+	/**
+	 * Copies the dimensions of the world, which may have changed or be shared with other flocks.
+	 */
+	void syncWorld() {
+		// neighbor lists were built for the old size, with its own wrapped neighbors
+		if (world.width != width || world.height != height) listCount = -1;
+		width = world.width;
+		height = world.height;
+		halfW = world.halfW;
+		halfH = world.halfH;
+	}
+
+	/**
+	 * @param width    width of the world
+	 * @param height   height of the world
+	 */
+	public void setSize(float width, float height) {
+		world.setSize(width, height);
+		syncWorld();
+	}
+
+	/**
+	 * @return the bounds of the world
+	 */
+	public WorldBounds getWorld() {
+		return world;
+	}
+
+	/**
+	 * @param world   the bounds of the world
+	 */
+	public void setWorld(WorldBounds world) {
+		this.world = world;
+		syncWorld();
+	}
+
+	/**
+	 * @param rand   source of random numbers
+	 */
+	public void setRandom(Random rand) {
+		this.rand = rand;
+	}
+
+	/**
+	 * @return the number of boids
+	 */
+	public int size() {
+		return count;
+	}
+
+	public float getX(int i) {
+		return x[i];
+	}
+
+	public float getY(int i) {
+		return y[i];
+	}
+
+	public float getVx(int i) {
+		return vx[i];
+	}
+
+	public float getVy(int i) {
+		return vy[i];
+	}
+
+	public void setLoc(int i, float px, float py) {
+		x[i] = px;
+		y[i] = py;
+		x2[i] = px;
+		y2[i] = py;
+	}
+
+	public void setVel(int i, float pvx, float pvy) {
+		vx[i] = pvx;
+		vy[i] = pvy;
+	}
+
+	/**
+	 * @return the x-coordinates of all boids, valid from index 0 to size() - 1
+	 */
+	public float[] getXs() {
+		return x;
+	}
+
+	/**
+	 * @return the y-coordinates of all boids, valid from index 0 to size() - 1
+	 */
+	public float[] getYs() {
+		return y;
+	}
+
+	/**
+	 * @return the x-components of velocity of all boids, valid from index 0 to size() - 1
+	 */
+	public float[] getVxs() {
+		return vx;
+	}
+
+	/**
+	 * @return the y-components of velocity of all boids, valid from index 0 to size() - 1
+	 */
+	public float[] getVys() {
+		return vy;
+	}
+
+	public void setMass(int i, float m) {
+		mass[i] = m;
+	}
+
+	public void setMaxSpeed(int i, float ms) {
+		maxspeed[i] = ms;
+	}
+
+	public void setMaxForce(int i, float mf) {
+		maxforce[i] = mf;
+	}
+
+	public void setSeparationDistance(int i, float d) {
+		sepDist[i] = d;
+	}
+
+	public void setAlignmentDistance(int i, float d) {
+		aliDist[i] = d;
+	}
+
+	public void setCohesionDistance(int i, float d) {
+		cohDist[i] = d;
+	}
+
+	public void setSeparationWeight(int i, float w) {
+		sepWeight[i] = w;
+	}
+
+	public void setAlignmentWeight(int i, float w) {
+		aliWeight[i] = w;
+	}
+
+	public void setCohesionWeight(int i, float w) {
+		cohWeight[i] = w;
+	}
+
+	/**
+	 * @return true if nearest points are found on a torus
+	 */
+	public boolean isMapToTorus() {
+		return mapToTorus;
+	}
+
+	/**
+	 * @param mapToTorus   true if nearest points should be found on a torus
+	 */
+	public void setMapToTorus(boolean mapToTorus) {
+		// lists built on a plane lack the neighbors across the edges of the torus, and vice versa
+		if (mapToTorus != this.mapToTorus) listCount = -1;
+		this.mapToTorus = mapToTorus;
+	}
+
+	/**
+	 * @return the distance beyond the largest neighbor radius kept in neighbor lists, 0 if lists are off
+	 */
+	public float getNeighborSkin() {
+		return neighborSkin;
+	}
+
+	/**
+	 * @param neighborSkin   distance beyond the largest neighbor radius to keep in neighbor lists, 
+	 *                       0 to find neighbors from scratch every frame
+	 */
+	public void setNeighborSkin(float neighborSkin) {
+		this.neighborSkin = neighborSkin;
+		listCount = -1;
+	}
+
+	/**
+	 * @return the number of times the neighbor lists have been rebuilt
+	 */
+	public int getListRebuilds() {
+		return listRebuilds;
+	}
+
+	/**
+	 * @return true if flock() and update() run on a ForkJoinPool
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Turns parallel steps on or off. Small flocks always run sequentially.
+	 * @param parallel   true if flock() and update() should run on a ForkJoinPool
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return true if the grid is used to find neighbors
+	 */
+	public boolean isUseGrid() {
+		return useGrid;
+	}
+
+	/**
+	 * @param useGrid   true if the grid should be used to find neighbors
+	 */
+	public void setUseGrid(boolean useGrid) {
+		this.useGrid = useGrid;
+	}
+
+}
@@ -0,0 +1,106 @@
+package com.ignofactory.steering;
+
+/**
+ * Optical flow for every cell of an OpticalFlower grid at one video frame, stored as two float arrays,
+ * u for the horizontal and v for the vertical component of flow, indexed by grid cell (iy * gw + ix).
+ *
+ * In asynchronous mode OpticalFlower passes three FlowFields between its worker thread and the thread
+ * that calls flow(), so that no flow is allocated from frame to frame. The field returned by
+ * OpticalFlower.getFlowField() does not change until the next call to flow(), after which it may be
+ * handed back to the worker and overwritten. Callers must not modify the arrays it returns.
+ */
+public class FlowField {
+	/** number of horizontal grid cells */
+	final int gw;
+	/** number of vertical grid cells */
+	final int gh;
+	/** horizontal component of flow for each grid cell */
+	final float[] u;
+	/** vertical component of flow for each grid cell */
+	final float[] v;
+	/** sequence number of the frame the flow was computed from, 0 before any frame */
+	long frame;
+	/** time the frame was captured, in milliseconds, see FrameSource.getTimestamp() */
+	long timestamp;
+
+	/**
+	 * @param gw   number of horizontal grid cells
+	 * @param gh   number of vertical grid cells
+	 */
+	FlowField(int gw, int gh) {
+		this.gw = gw;
+		this.gh = gh;
+		this.u = new float[gw * gh];
+		this.v = new float[gw * gh];
+	}
+
+	/**
+	 * Copies flow and frame number from another field of the same size.
+	 * @param field   a FlowField
+	 */
+	void copyFrom(FlowField field) {
+		System.arraycopy(field.u, 0, u, 0, u.length);
+		System.arraycopy(field.v, 0, v, 0, v.length);
+		frame = field.frame;
+		timestamp = field.timestamp;
+	}
+
+	/**
+	 * @return number of horizontal grid cells
+	 */
+	public int getGw() {
+		return gw;
+	}
+
+	/**
+	 * @return number of vertical grid cells
+	 */
+	public int getGh() {
+		return gh;
+	}
+
+	/**
+	 * @param ig   index of a grid cell, iy * gw + ix
+	 * @return     horizontal component of flow at grid cell ig
+	 */
+	public float getU(int ig) {
+		return u[ig];
+	}
+
+	/**
+	 * @param ig   index of a grid cell, iy * gw + ix
+	 * @return     vertical component of flow at grid cell ig
+	 */
+	public float getV(int ig) {
+		return v[ig];
+	}
+
+	/**
+	 * @return horizontal components of flow for all grid cells, row by row, not to be modified
+	 */
+	public float[] getUs() {
+		return u;
+	}
+
+	/**
+	 * @return vertical components of flow for all grid cells, row by row, not to be modified
+	 */
+	public float[] getVs() {
+		return v;
+	}
+
+	/**
+	 * @return sequence number of the frame the flow was computed from
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	/**
+	 * @return time the frame the flow was computed from was captured, in milliseconds, see FrameSource.getTimestamp()
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+}
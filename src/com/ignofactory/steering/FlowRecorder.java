@@ -0,0 +1,141 @@
+package com.ignofactory.steering;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import processing.core.PApplet;
+
+/**
+ * Writes the flow computed by an OpticalFlower to a binary file, one record per frame, for playback
+ * with a FlowReplayer, see OpticalFlower.startRecording(). All values are big-endian.
+ *
+ * The file starts with a header of eight ints: MAGIC, VERSION, width and height of the video,
+ * grid step, number of horizontal and vertical grid cells (gw, gh) and a reserved 0.
+ * Each record holds gw and gh as ints, the timestamp of the frame in milliseconds as a long,
+ * then gw * gh floats of horizontal flow (u) and gw * gh floats of vertical flow (v), row by row,
+ * so every record has the same length, RECORD_HEADER + 8 * gw * gh bytes.
+ *
+ * record() and close() are synchronized, so that a recording can be stopped from another thread
+ * than the one that records, such as OpticalFlower's worker in asynchronous mode.
+ */
+public class FlowRecorder {
+	/** "FLOW" */
+	public static final int MAGIC = 0x464C4F57;
+	public static final int VERSION = 1;
+	/** bytes in the file header */
+	public static final int HEADER = 32;
+	/** bytes before the flow in each record */
+	public static final int RECORD_HEADER = 16;
+
+	String path;
+	RandomAccessFile file;
+	FileChannel channel;
+	/** one record, reused for every frame */
+	ByteBuffer buffer;
+	int gw;
+	int gh;
+	long frameCount;
+
+	/**
+	 * @param path   path of the file to write, replaced if it exists
+	 */
+	public FlowRecorder(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Creates the file and writes its header.
+	 * @param wscreen   width of video
+	 * @param hscreen   height of video
+	 * @param gs        grid step, in video pixels
+	 * @param gw        number of horizontal grid cells
+	 * @param gh        number of vertical grid cells
+	 * @return          true if the file could be created
+	 */
+	public synchronized boolean open(int wscreen, int hscreen, int gs, int gw, int gh) {
+		close();
+		this.gw = gw;
+		this.gh = gh;
+		this.frameCount = 0;
+		buffer = ByteBuffer.allocateDirect(RECORD_HEADER + 8 * gw * gh);
+		try {
+			file = new RandomAccessFile(path, "rw");
+			file.setLength(0);
+			channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(wscreen).putInt(hscreen);
+			header.putInt(gs).putInt(gw).putInt(gh).putInt(0);
+			header.flip();
+			while (header.hasRemaining()) channel.write(header);
+		}
+		catch (IOException e) {
+			PApplet.println("Could not create "+ path +": "+ e.getMessage());
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a record of flow to the file.
+	 * @param field   flow for a grid of the size passed to open()
+	 * @return        true if the record was written
+	 */
+	public synchronized boolean record(FlowField field) {
+		if (null == channel || field.gw != gw || field.gh != gh) return false;
+		ByteBuffer b = buffer;
+		b.clear();
+		b.putInt(gw).putInt(gh).putLong(field.timestamp);
+		b.asFloatBuffer().put(field.u).put(field.v);
+		b.position(b.capacity());
+		b.flip();
+		try {
+			while (b.hasRemaining()) channel.write(b);
+		}
+		catch (IOException e) {
+			PApplet.println("Could not write to "+ path +": "+ e.getMessage());
+			close();
+			return false;
+		}
+		frameCount++;
+		return true;
+	}
+
+	/**
+	 * Closes the file. Records already written stay in it.
+	 */
+	public synchronized void close() {
+		if (null == file) return;
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+			// nothing we can do
+		}
+		file = null;
+		channel = null;
+	}
+
+	/**
+	 * @return true if the file is open for recording
+	 */
+	public synchronized boolean isOpen() {
+		return null != channel;
+	}
+
+	/**
+	 * @return number of records written since open()
+	 */
+	public synchronized long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return path of the file
+	 */
+	public String getPath() {
+		return path;
+	}
+}
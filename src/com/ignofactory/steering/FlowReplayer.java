@@ -0,0 +1,302 @@
+package com.ignofactory.steering;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import processing.core.PApplet;
+
+/**
+ * Plays back flow recorded by a FlowRecorder. The file is memory-mapped, in windows of whole records
+ * so that recordings larger than 2 GB can be played, and records are read straight from the mapped pages
+ * into a FlowField, with no intermediate copies or allocation. See OpticalFlower.setReplayer(), which
+ * serves replayed flow through getFlow(), getFlowList() and the other flow methods.
+ *
+ * With speed 1, records become due at the intervals between their timestamps, as they were recorded.
+ * Larger speeds play faster, and next() skips records whose time has passed, as a camera drops frames.
+ * With speed 0, each call to next() returns the following record, as fast as they are asked for.
+ */
+public class FlowReplayer {
+	String path;
+	int wscreen;
+	int hscreen;
+	int gs;
+	int gw;
+	int gh;
+	/** bytes in one record */
+	int recordSize;
+	/** number of complete records in the file */
+	long frameCount;
+	/** records in each mapped window */
+	int recordsPerMap;
+	/** mapped windows, mapped when first read */
+	MappedByteBuffer[] maps;
+	FileChannel channel;
+	RandomAccessFile file;
+	/** playback speed, 1 for the rate of the recording, 0 to play a record for each call to next() */
+	float speed = 1;
+	boolean loop = true;
+	/** index of the last record read, -1 before the first */
+	long index = -1;
+	/** System.nanoTime() when playback started, 0 before the first call to next() */
+	long startTime = 0;
+	/** largest window to map, in bytes */
+	static final int MAP_BYTES = 1 << 28;
+
+	/**
+	 * @param path   path of a file written by FlowRecorder
+	 */
+	public FlowReplayer(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Opens the file and reads its header. Playback starts at the first record with the next call to next().
+	 * @return true if the file could be opened and holds at least one record
+	 */
+	public boolean open() {
+		close();
+		try {
+			file = new RandomAccessFile(path, "r");
+			channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(FlowRecorder.HEADER);
+			while (header.hasRemaining()) {
+				if (channel.read(header) < 0) break;
+			}
+			header.flip();
+			if (header.remaining() < FlowRecorder.HEADER || header.getInt() != FlowRecorder.MAGIC
+					|| header.getInt() != FlowRecorder.VERSION) {
+				PApplet.println(path +" is not a flow recording");
+				close();
+				return false;
+			}
+			wscreen = header.getInt();
+			hscreen = header.getInt();
+			gs = header.getInt();
+			gw = header.getInt();
+			gh = header.getInt();
+			recordSize = FlowRecorder.RECORD_HEADER + 8 * gw * gh;
+			frameCount = (channel.size() - FlowRecorder.HEADER) / recordSize;
+		}
+		catch (IOException e) {
+			PApplet.println("Could not open "+ path +": "+ e.getMessage());
+			close();
+			return false;
+		}
+		if (0 == frameCount) {
+			PApplet.println(path +" has no flow records");
+			close();
+			return false;
+		}
+		recordsPerMap = Math.max(1, MAP_BYTES / recordSize);
+		maps = new MappedByteBuffer[(int) ((frameCount + recordsPerMap - 1) / recordsPerMap)];
+		rewind();
+		return true;
+	}
+
+	/**
+	 * Closes the file and releases the mapped windows.
+	 */
+	public void close() {
+		maps = null;
+		if (null == file) return;
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+			// nothing we can do
+		}
+		file = null;
+		channel = null;
+	}
+
+	/**
+	 * Starts playback over from the first record.
+	 */
+	public void rewind() {
+		index = -1;
+		startTime = 0;
+	}
+
+	/**
+	 * @param i   index of a record
+	 * @return    mapped window holding record i, positioned nowhere in particular
+	 */
+	ByteBuffer window(long i) throws IOException {
+		int w = (int) (i / recordsPerMap);
+		if (null == maps[w]) {
+			long first = (long) w * recordsPerMap;
+			long count = Math.min(recordsPerMap, frameCount - first);
+			maps[w] = channel.map(FileChannel.MapMode.READ_ONLY, FlowRecorder.HEADER + first * recordSize, count * recordSize);
+		}
+		return maps[w];
+	}
+
+	/**
+	 * @param i   index of a record, 0 to getFrameCount() - 1
+	 * @return    timestamp of record i, in milliseconds
+	 */
+	public long getTimestamp(long i) {
+		try {
+			return window(i).getLong((int) (i % recordsPerMap) * recordSize + 8);
+		}
+		catch (IOException e) {
+			PApplet.println("Could not read "+ path +": "+ e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Reads a record into a FlowField, which must have the grid size of the recording.
+	 * @param i     index of a record, 0 to getFrameCount() - 1
+	 * @param out   receives the flow, the timestamp of the record and, as its frame number, i + 1
+	 * @return      true if the record was read
+	 */
+	public boolean read(long i, FlowField out) {
+		if (null == maps || i < 0 || i >= frameCount || out.gw != gw || out.gh != gh) return false;
+		try {
+			ByteBuffer b = window(i).duplicate();
+			int pos = (int) (i % recordsPerMap) * recordSize;
+			out.timestamp = b.getLong(pos + 8);
+			b.position(pos + FlowRecorder.RECORD_HEADER);
+			b.asFloatBuffer().get(out.u).get(out.v);
+		}
+		catch (IOException e) {
+			PApplet.println("Could not read "+ path +": "+ e.getMessage());
+			return false;
+		}
+		out.frame = i + 1;
+		return true;
+	}
+
+	/**
+	 * Reads the record due now into out, if it is not the last record read.
+	 * @param out   receives the flow, see read()
+	 * @return      true if a new record was read
+	 */
+	public boolean next(FlowField out) {
+		if (null == maps) return false;
+		long due;
+		if (speed <= 0) {
+			due = index + 1;
+			if (due >= frameCount) {
+				if (!loop) return false;
+				due = 0;
+			}
+		}
+		else {
+			long now = System.nanoTime();
+			if (0 == startTime) startTime = now;
+			double elapsed = (now - startTime) / 1000000.0 * speed;
+			long t0 = getTimestamp(0);
+			if (loop && frameCount > 1) {
+				// the recording repeats after its length plus one frame interval
+				double length = (getTimestamp(frameCount - 1) - t0) * frameCount / (double) (frameCount - 1);
+				if (length > 0 && elapsed >= length) {
+					long laps = (long) (elapsed / length);
+					startTime += (long) (laps * length * 1000000.0 / speed);
+					elapsed -= laps * length;
+					index = -1;
+				}
+			}
+			due = Math.max(index, 0);
+			while (due + 1 < frameCount && getTimestamp(due + 1) - t0 <= elapsed) due++;
+			if (due == index) return false;
+		}
+		if (!read(due, out)) return false;
+		index = due;
+		return true;
+	}
+
+	/**
+	 * @return width of the recorded video
+	 */
+	public int getWscreen() {
+		return wscreen;
+	}
+
+	/**
+	 * @return height of the recorded video
+	 */
+	public int getHscreen() {
+		return hscreen;
+	}
+
+	/**
+	 * @return grid step of the recording, in video pixels
+	 */
+	public int getGs() {
+		return gs;
+	}
+
+	/**
+	 * @return number of horizontal grid cells
+	 */
+	public int getGw() {
+		return gw;
+	}
+
+	/**
+	 * @return number of vertical grid cells
+	 */
+	public int getGh() {
+		return gh;
+	}
+
+	/**
+	 * @return number of records in the file, 0 until open()
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * @return index of the last record read, -1 before the first
+	 */
+	public long getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return playback speed, 1 for the rate of the recording
+	 */
+	public float getSpeed() {
+		return speed;
+	}
+
+	/**
+	 * @param speed   playback speed, 1 for the rate of the recording, 2 for twice as fast,
+	 *                0 to play the next record at every call to next()
+	 */
+	public void setSpeed(float speed) {
+		if (speed > 0 && this.speed > 0 && startTime != 0) {
+			// keep our place in the recording
+			long now = System.nanoTime();
+			startTime = now - (long) ((now - startTime) * (double) this.speed / speed);
+		}
+		this.speed = speed;
+	}
+
+	/**
+	 * @return true if playback starts over after the last record
+	 */
+	public boolean isLoop() {
+		return loop;
+	}
+
+	/**
+	 * @param loop   true to start over after the last record, false to stop there
+	 */
+	public void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+
+	/**
+	 * @return path of the file
+	 */
+	public String getPath() {
+		return path;
+	}
+}
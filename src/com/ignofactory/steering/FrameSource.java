@@ -0,0 +1,65 @@
+package com.ignofactory.steering;
+
+import processing.core.PImage;
+
+/**
+ * A source of video frames for OpticalFlower: a camera (CaptureSource), a file of raw frames
+ * (FileFrameSource) or generated frames (SyntheticFrameSource). Frames are delivered as arrays of
+ * Processing ARGB pixels, row by row, with the time each frame was captured or is meant to be shown.
+ *
+ * OpticalFlower calls start() once, then polls available() and calls read() when it returns true.
+ * A source keeps only its newest frame: getPixels() returns the same array after every read(),
+ * filled with the latest frame, and OpticalFlower may modify it (mirroring it, for example).
+ * In asynchronous mode all calls but start() and stop() come from OpticalFlower's worker thread.
+ */
+public interface FrameSource {
+	/**
+	 * Starts delivering frames.
+	 * @return true if the source could be opened
+	 */
+	public boolean start();
+
+	/**
+	 * Stops delivering frames and releases the camera, file or other resources held by the source.
+	 */
+	public void stop();
+
+	/**
+	 * @return true if a frame has arrived since the last call to read()
+	 */
+	public boolean available();
+
+	/**
+	 * Reads the newest frame into the array returned by getPixels().
+	 * @return true if a frame was read
+	 */
+	public boolean read();
+
+	/**
+	 * @return pixels of the last frame read, Processing ARGB colors, row by row
+	 */
+	public int[] getPixels();
+
+	/**
+	 * @return an image of the source's own whose pixels are those returned by getPixels(), such as the Capture 
+	 *         of a camera, which OpticalFlower passes to its responder in synchronous mode to save a copy, 
+	 *         or null if the source keeps its frames in a bare array
+	 */
+	public PImage getImage();
+
+	/**
+	 * @return time the last frame read was captured, or is to be shown, in milliseconds
+	 *         from an origin that depends on the source
+	 */
+	public long getTimestamp();
+
+	/**
+	 * @return width of frames in pixels
+	 */
+	public int getWidth();
+
+	/**
+	 * @return height of frames in pixels
+	 */
+	public int getHeight();
+}
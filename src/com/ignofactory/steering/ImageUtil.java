@@ -1,9 +1,28 @@
 package com.ignofactory.steering;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import processing.core.*;
 
+/**
+ * Image utilities and a library of pixel kernels: set alpha, mirror, fill, fade, multiply, grayscale, blend,
+ * scale and downsample. Each kernel has a version that works on int[] arrays of ARGB pixels and never
+ * touches PImage state, so it can run on any thread, and most have a PImage version that loads and
+ * updates pixels around it. Inner loops allocate nothing. Kernels that take a source and a destination
+ * may be passed the same array for both, except scale() and downsample().
+ *
+ * Large images are split into bands of rows that run in parallel on the common ForkJoinPool,
+ * see setParallel() and setMinParallel(). The versions that take a range of pixels or rows
+ * always run on the calling thread, for callers that split the work themselves.
+ */
 public class ImageUtil {
 	PApplet parent;
+	/** true if kernels split large images into bands that run in parallel */
+	static boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+	/** fewest pixels for which kernels run in parallel */
+	static int minParallel = 1 << 17;
 	
 	/**
 	 * @param parent
@@ -30,19 +49,13 @@ public class ImageUtil {
 	}
 	
 	/**
-	 * Copy an image pixel by pixel, test code to work around problems in Processing 2.1 with PImage.get.
-	 * @param image   image to copy
+	 * Sets the alpha channel of an image, in place, see setAlpha().
+	 * @param image   image to change
+	 * @param alpha   alpha 0..255
 	 * @return        the image submitted with apha channel set to desired value
 	 */
 	public PImage loadImageAlpha(PImage image, int alpha) {
-		int i = 0;
-		image.loadPixels();
-		for (i = 0; i < image.pixels.length; i++) {
-			int[] rgb = rgbComponents(image.pixels[i]);
-			image.pixels[i] = alpha << 24 | rgb[0] << 16 | rgb[1] << 8 | rgb[2];
-		}
-		image.updatePixels();
-		return image;
+		return setAlpha(image, alpha);
 	}
 	
 	/**
@@ -99,5 +112,524 @@ public class ImageUtil {
 		return comp[3] << 24 | comp[0] << 16 | comp[1] << 8 | comp[2];
 	}
 
+	/********** pixel kernels **********/
+
+	/**
+	 * Work done by a kernel on a range of pixels or rows, for KernelTask.
+	 */
+	abstract static class Kernel {
+		abstract void run(int lo, int hi);
+	}
+
+	/**
+	 * Splits a range of pixels or rows in half until it is no larger than grain, then runs a kernel on it.
+	 */
+	static class KernelTask extends RecursiveAction {
+		Kernel kernel;
+		int lo, hi, grain;
+
+		KernelTask(Kernel kernel, int lo, int hi, int grain) {
+			this.kernel = kernel;
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > grain) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new KernelTask(kernel, lo, mid, grain), new KernelTask(kernel, mid, hi, grain));
+				return;
+			}
+			kernel.run(lo, hi);
+		}
+	}
+
+	/**
+	 * @param pixels   number of pixels a kernel will process
+	 * @return         true if the kernel should run in parallel bands
+	 */
+	static boolean isRunParallel(int pixels) {
+		return parallel && pixels >= minParallel;
+	}
+
+	/**
+	 * Runs a kernel over units 0..n - 1 (pixels or rows) in parallel bands and waits for it to finish.
+	 */
+	static void invoke(Kernel kernel, int n) {
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		// several bands per thread, so that threads that start late even out
+		int grain = Math.max(1, n / (4 * pool.getParallelism()));
+		pool.invoke(new KernelTask(kernel, 0, n, grain));
+	}
+
+	/**
+	 * Multiplies two color components, rounding c * m / 255 exactly.
+	 * @param c   color component 0..255
+	 * @param m   multiplier 0..255, 255 for 1.0
+	 * @return    c * m / 255, rounded
+	 */
+	public static int mul255(int c, int m) {
+		int t = c * m + 128;
+		return (t + (t >> 8)) >> 8;
+	}
+
+	/**
+	 * Sets the alpha channel of pixels from to - 1, keeping their colors.
+	 * @param src     source pixels, ARGB
+	 * @param dst     destination pixels, may be src
+	 * @param alpha   alpha 0..255
+	 * @param from    first pixel
+	 * @param to      pixel after the last
+	 */
+	public static void setAlpha(int[] src, int[] dst, int alpha, int from, int to) {
+		int a = alpha << 24;
+		for (int i = from; i < to; i++) {
+			dst[i] = (src[i] & 0x00FFFFFF) | a;
+		}
+	}
+
+	/**
+	 * Sets the alpha channel of all pixels, keeping their colors.
+	 * @param src     source pixels, ARGB
+	 * @param dst     destination pixels, at least as long as src, may be src
+	 * @param alpha   alpha 0..255
+	 */
+	public static void setAlpha(final int[] src, final int[] dst, int alpha) {
+		final int a = alpha & 0xFF;
+		int n = src.length;
+		if (!isRunParallel(n)) {
+			setAlpha(src, dst, a, 0, n);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				setAlpha(src, dst, a, lo, hi);
+			}
+		}, n);
+	}
+
+	/**
+	 * Sets the alpha channel of an image, in place.
+	 * @param image   an image
+	 * @param alpha   alpha 0..255
+	 * @return        image, for chaining
+	 */
+	public static PImage setAlpha(PImage image, int alpha) {
+		image.loadPixels();
+		setAlpha(image.pixels, image.pixels, alpha);
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Mirrors rows y0 to y1 - 1 horizontally, so that the left edge becomes the right edge.
+	 * @param src   source pixels, w * h ARGB
+	 * @param dst   destination pixels, may be src
+	 * @param w     width of the image
+	 * @param y0    first row
+	 * @param y1    row after the last
+	 */
+	public static void mirrorRows(int[] src, int[] dst, int w, int y0, int y1) {
+		for (int y = y0; y < y1; y++) {
+			int left = y * w;
+			int right = left + w - 1;
+			// swapping from both ends also works in place
+			while (left < right) {
+				int p = src[left];
+				dst[left++] = src[right];
+				dst[right--] = p;
+			}
+			if (left == right) dst[left] = src[left];
+		}
+	}
+
+	/**
+	 * Mirrors an image horizontally, so that the left edge becomes the right edge.
+	 * @param src   source pixels, w * h ARGB
+	 * @param dst   destination pixels, may be src
+	 * @param w     width of the image
+	 * @param h     height of the image
+	 */
+	public static void mirror(final int[] src, final int[] dst, final int w, int h) {
+		if (!isRunParallel(w * h)) {
+			mirrorRows(src, dst, w, 0, h);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				mirrorRows(src, dst, w, lo, hi);
+			}
+		}, h);
+	}
+
+	/**
+	 * Mirrors an image horizontally, in place.
+	 * @param image   an image
+	 * @return        image, for chaining
+	 */
+	public static PImage mirror(PImage image) {
+		image.loadPixels();
+		mirror(image.pixels, image.pixels, image.width, image.height);
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Fills all pixels with a color.
+	 * @param dst    destination pixels
+	 * @param argb   a Processing color
+	 */
+	public static void fill(final int[] dst, final int argb) {
+		int n = dst.length;
+		if (!isRunParallel(n)) {
+			Arrays.fill(dst, argb);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				Arrays.fill(dst, lo, hi, argb);
+			}
+		}, n);
+	}
+
+	/**
+	 * Fills an image with a color.
+	 * @param image   an image
+	 * @param argb    a Processing color
+	 * @return        image, for chaining
+	 */
+	public static PImage fill(PImage image, int argb) {
+		image.loadPixels();
+		fill(image.pixels, argb);
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Multiplies the channels of pixels from to - 1 by the channels of a color, as tint() does.
+	 * @param src    source pixels, ARGB
+	 * @param dst    destination pixels, may be src
+	 * @param argb   a Processing color, each channel 255 for 1.0
+	 * @param from   first pixel
+	 * @param to     pixel after the last
+	 */
+	public static void multiply(int[] src, int[] dst, int argb, int from, int to) {
+		int ma = argb >>> 24;
+		int mr = (argb >> 16) & 0xFF;
+		int mg = (argb >> 8) & 0xFF;
+		int mb = argb & 0xFF;
+		for (int i = from; i < to; i++) {
+			int p = src[i];
+			dst[i] = mul255(p >>> 24, ma) << 24 | mul255((p >> 16) & 0xFF, mr) << 16
+					| mul255((p >> 8) & 0xFF, mg) << 8 | mul255(p & 0xFF, mb);
+		}
+	}
+
+	/**
+	 * Multiplies the channels of all pixels by the channels of a color, as tint() does.
+	 * @param src    source pixels, ARGB
+	 * @param dst    destination pixels, at least as long as src, may be src
+	 * @param argb   a Processing color, each channel 255 for 1.0
+	 */
+	public static void multiply(final int[] src, final int[] dst, final int argb) {
+		int n = src.length;
+		if (!isRunParallel(n)) {
+			multiply(src, dst, argb, 0, n);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				multiply(src, dst, argb, lo, hi);
+			}
+		}, n);
+	}
+
+	/**
+	 * Multiplies the channels of an image by the channels of a color, in place.
+	 * @param image   an image
+	 * @param argb    a Processing color, each channel 255 for 1.0
+	 * @return        image, for chaining
+	 */
+	public static PImage multiply(PImage image, int argb) {
+		image.loadPixels();
+		multiply(image.pixels, image.pixels, argb);
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Fades all pixels toward transparent, multiplying their alpha and keeping their colors.
+	 * @param src      source pixels, ARGB
+	 * @param dst      destination pixels, at least as long as src, may be src
+	 * @param amount   multiplier for alpha, 0..255, 255 for 1.0
+	 */
+	public static void fade(int[] src, int[] dst, int amount) {
+		multiply(src, dst, (amount & 0xFF) << 24 | 0x00FFFFFF);
+	}
+
+	/**
+	 * Fades an image toward transparent, in place.
+	 * @param image    an image
+	 * @param amount   multiplier for alpha, 0..255, 255 for 1.0
+	 * @return         image, for chaining
+	 */
+	public static PImage fade(PImage image, int amount) {
+		return multiply(image, (amount & 0xFF) << 24 | 0x00FFFFFF);
+	}
+
+	/**
+	 * Converts pixels from to - 1 to gray, keeping their alpha. Luma weights are those of IntegralImage.buildLuma().
+	 * @param src    source pixels, ARGB
+	 * @param dst    destination pixels, may be src
+	 * @param from   first pixel
+	 * @param to     pixel after the last
+	 */
+	public static void grayscale(int[] src, int[] dst, int from, int to) {
+		for (int i = from; i < to; i++) {
+			int p = src[i];
+			int l = (77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF)) >> 8;
+			dst[i] = (p & 0xFF000000) | l * 0x010101;
+		}
+	}
+
+	/**
+	 * Converts all pixels to gray, keeping their alpha.
+	 * @param src   source pixels, ARGB
+	 * @param dst   destination pixels, at least as long as src, may be src
+	 */
+	public static void grayscale(final int[] src, final int[] dst) {
+		int n = src.length;
+		if (!isRunParallel(n)) {
+			grayscale(src, dst, 0, n);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				grayscale(src, dst, lo, hi);
+			}
+		}, n);
+	}
+
+	/**
+	 * Converts an image to gray, in place.
+	 * @param image   an image
+	 * @return        image, for chaining
+	 */
+	public static PImage grayscale(PImage image) {
+		image.loadPixels();
+		grayscale(image.pixels, image.pixels);
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Composites a rectangle of one image over another, as image() draws an image with alpha.
+	 * The base is treated as opaque, so the result is opaque.
+	 * @param base   base pixels, w pixels wide, ARGB
+	 * @param over   pixels drawn over the base, w pixels wide, ARGB with alpha
+	 * @param dst    destination pixels, w pixels wide, may be base or over
+	 * @param w      width of the images
+	 * @param x0     left edge of the rectangle
+	 * @param x1     column after the right edge
+	 * @param y0     top edge of the rectangle
+	 * @param y1     row after the bottom edge
+	 */
+	public static void blendOverRows(int[] base, int[] over, int[] dst, int w, int x0, int x1, int y0, int y1) {
+		for (int y = y0; y < y1; y++) {
+			int row = y * w;
+			for (int i = row + x0; i < row + x1; i++) {
+				int o = over[i];
+				int b = base[i];
+				int a = o >>> 24;
+				int na = 255 - a;
+				dst[i] = 0xFF000000
+						| mul255((o >> 16) & 0xFF, a) + mul255((b >> 16) & 0xFF, na) << 16
+						| mul255((o >> 8) & 0xFF, a) + mul255((b >> 8) & 0xFF, na) << 8
+						| mul255(o & 0xFF, a) + mul255(b & 0xFF, na);
+			}
+		}
+	}
+
+	/**
+	 * Composites a rectangle of one image over another, see blendOverRows().
+	 * @param base   base pixels, w pixels wide, ARGB
+	 * @param over   pixels drawn over the base, w pixels wide, ARGB with alpha
+	 * @param dst    destination pixels, w pixels wide, may be base or over
+	 * @param w      width of the images
+	 * @param x0     left edge of the rectangle
+	 * @param x1     column after the right edge
+	 * @param y0     top edge of the rectangle
+	 * @param y1     row after the bottom edge
+	 */
+	public static void blendOver(final int[] base, final int[] over, final int[] dst, final int w,
+			final int x0, final int x1, final int y0, int y1) {
+		if (!isRunParallel((x1 - x0) * (y1 - y0))) {
+			blendOverRows(base, over, dst, w, x0, x1, y0, y1);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				blendOverRows(base, over, dst, w, x0, x1, y0 + lo, y0 + hi);
+			}
+		}, y1 - y0);
+	}
+
+	/**
+	 * Scales rows y0 to y1 - 1 of the destination from the source with nearest-neighbor sampling,
+	 * optionally setting alpha in the same pass.
+	 * @param src     source pixels, sw * sh ARGB
+	 * @param sw      width of the source
+	 * @param sh      height of the source
+	 * @param dst     destination pixels, dw * dh, not src
+	 * @param dw      width of the destination
+	 * @param dh      height of the destination
+	 * @param alpha   alpha 0..255 for the destination, or -1 to keep the alpha of the source
+	 * @param y0      first destination row
+	 * @param y1      destination row after the last
+	 */
+	public static void scaleRows(int[] src, int sw, int sh, int[] dst, int dw, int dh, int alpha, int y0, int y1) {
+		int keep = (alpha < 0) ? 0xFFFFFFFF : 0x00FFFFFF;
+		int a = (alpha < 0) ? 0 : alpha << 24;
+		for (int y = y0; y < y1; y++) {
+			// sample at the center of each destination pixel
+			int row = (int) (((2L * y + 1) * sh) / (2L * dh)) * sw;
+			int p = y * dw;
+			if (dw == sw) {
+				for (int x = 0; x < dw; x++) {
+					dst[p + x] = (src[row + x] & keep) | a;
+				}
+				continue;
+			}
+			// step through source columns in 16.16 fixed point, no division per pixel
+			int step = (int) (((long) sw << 16) / dw);
+			int fx = step >> 1;
+			for (int x = 0; x < dw; x++) {
+				dst[p + x] = (src[row + (fx >>> 16)] & keep) | a;
+				fx += step;
+			}
+		}
+	}
+
+	/**
+	 * Scales an image into another with nearest-neighbor sampling, optionally setting alpha in the same pass.
+	 * @param src     source pixels, sw * sh ARGB
+	 * @param sw      width of the source
+	 * @param sh      height of the source
+	 * @param dst     destination pixels, dw * dh, not src
+	 * @param dw      width of the destination
+	 * @param dh      height of the destination
+	 * @param alpha   alpha 0..255 for the destination, or -1 to keep the alpha of the source
+	 */
+	public static void scale(final int[] src, final int sw, final int sh, final int[] dst, final int dw, final int dh, final int alpha) {
+		if (!isRunParallel(dw * dh)) {
+			scaleRows(src, sw, sh, dst, dw, dh, alpha, 0, dh);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				scaleRows(src, sw, sh, dst, dw, dh, alpha, lo, hi);
+			}
+		}, dh);
+	}
+
+	/**
+	 * Downsamples rows y0 to y1 - 1 of the destination, averaging each channel over blocks of factor * factor source pixels.
+	 * @param src      source pixels, sw * sh ARGB
+	 * @param sw       width of the source
+	 * @param dst      destination pixels, (sw / factor) * (sh / factor), not src
+	 * @param factor   side of the blocks, in source pixels
+	 * @param y0       first destination row
+	 * @param y1       destination row after the last
+	 */
+	public static void downsampleRows(int[] src, int sw, int[] dst, int factor, int y0, int y1) {
+		int dw = sw / factor;
+		int n = factor * factor;
+		int half = n >> 1;
+		for (int y = y0; y < y1; y++) {
+			int p = y * dw;
+			int top = y * factor * sw;
+			for (int x = 0; x < dw; x++) {
+				int sa = 0, sr = 0, sg = 0, sb = 0;
+				int row = top + x * factor;
+				for (int j = 0; j < factor; j++, row += sw) {
+					for (int i = row; i < row + factor; i++) {
+						int c = src[i];
+						sa += c >>> 24;
+						sr += (c >> 16) & 0xFF;
+						sg += (c >> 8) & 0xFF;
+						sb += c & 0xFF;
+					}
+				}
+				dst[p + x] = (sa + half) / n << 24 | (sr + half) / n << 16 | (sg + half) / n << 8 | (sb + half) / n;
+			}
+		}
+	}
+
+	/**
+	 * Downsamples an image by an integer factor, averaging each channel over blocks of factor * factor pixels.
+	 * Rows and columns left over at the right and bottom edges are dropped.
+	 * @param src      source pixels, sw * sh ARGB
+	 * @param sw       width of the source
+	 * @param sh       height of the source
+	 * @param dst      destination pixels, at least (sw / factor) * (sh / factor), not src
+	 * @param factor   side of the blocks, in source pixels
+	 */
+	public static void downsample(final int[] src, final int sw, int sh, final int[] dst, final int factor) {
+		int dh = sh / factor;
+		if (!isRunParallel(sw * sh)) {
+			downsampleRows(src, sw, dst, factor, 0, dh);
+			return;
+		}
+		invoke(new Kernel() {
+			void run(int lo, int hi) {
+				downsampleRows(src, sw, dst, factor, lo, hi);
+			}
+		}, dh);
+	}
+
+	/**
+	 * Downsamples an image by an integer factor into a new image.
+	 * @param image    an image
+	 * @param factor   side of the blocks averaged into each pixel
+	 * @return         a new ARGB image, (width / factor) by (height / factor)
+	 */
+	public PImage downsample(PImage image, int factor) {
+		PImage small = parent.createImage(image.width / factor, image.height / factor, PImage.ARGB);
+		image.loadPixels();
+		small.loadPixels();
+		downsample(image.pixels, image.width, image.height, small.pixels, factor);
+		small.updatePixels();
+		return small;
+	}
+
+	/**
+	 * @return true if kernels split large images into bands that run in parallel
+	 */
+	public static boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @param parallel   true to split large images into bands that run in parallel on the common ForkJoinPool
+	 */
+	public static void setParallel(boolean parallel) {
+		ImageUtil.parallel = parallel;
+	}
+
+	/**
+	 * @return fewest pixels for which kernels run in parallel
+	 */
+	public static int getMinParallel() {
+		return minParallel;
+	}
+
+	/**
+	 * @param minParallel   fewest pixels for which kernels run in parallel, smaller images run on the calling thread
+	 */
+	public static void setMinParallel(int minParallel) {
+		ImageUtil.minParallel = minParallel;
+	}
 
 }
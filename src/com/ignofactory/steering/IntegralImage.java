@@ -0,0 +1,217 @@
+package com.ignofactory.steering;
+
+/**
+ * Summed-area tables (integral images) for the red, green and blue channels of an image.
+ * Each table has one more row and column than the image, entry (x, y) holding the sum of all
+ * pixels above and to the left of pixel (x, y), so the sum over any rectangle takes four lookups,
+ * however large the rectangle. Building the tables is a single pass over the pixels.
+ *
+ * The three tables are interleaved in one array, so the red, green and blue sums at a corner 
+ * share a cache line and sums() can read all three channels with four memory accesses. 
+ *
+ * buildLuma() instead builds a single table of luma, (77 r + 150 g + 29 b) >> 8, converting each
+ * pixel once, for callers that only need brightness. Its sums are read with luma(); sum() and sums()
+ * read the three color tables built by build().
+ *
+ * Sums are ints, which are exact for images up to about 8 million pixels (255 * pixels < 2^31).
+ */
+public class IntegralImage {
+	public static final int RED = 0;
+	public static final int GREEN = 1;
+	public static final int BLUE = 2;
+
+	/** width of the image */
+	int width;
+	/** height of the image */
+	int height;
+	/** width of a table row, width + 1 */
+	int stride;
+	/** summed-area tables for red, green and blue, interleaved: entry (x, y) of channel c is at 3 * (y * stride + x) + c */
+	int[] sums = new int[0];
+	/** summed-area table for luma: entry (x, y) is at y * stride + x */
+	int[] lumaSums = new int[0];
+	/** was the last table built the luma table? */
+	boolean luma = false;
+
+	public IntegralImage() {
+	}
+
+	/**
+	 * Builds the tables for an image in Processing ARGB format, reusing storage if it is large enough.
+	 * @param pixels   pixels of the image, row by row
+	 * @param width    width of the image
+	 * @param height   height of the image
+	 */
+	public void build(int[] pixels, int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 1;
+		this.luma = false;
+		int size = 3 * stride * (height + 1);
+		if (sums.length < size) sums = new int[size];
+		int[] s = sums;
+		// row 0 and column 0 are all zeros
+		for (int k = 0; k < 3 * stride; k++) {
+			s[k] = 0;
+		}
+		for (int y = 0; y < height; y++) {
+			int p = y * width;
+			int k = 3 * (y + 1) * stride;
+			int above = k - 3 * stride;
+			s[k] = s[k + 1] = s[k + 2] = 0;
+			k += 3;
+			above += 3;
+			int rowr = 0, rowg = 0, rowb = 0;
+			for (int x = 0; x < width; x++) {
+				int pix = pixels[p++];
+				rowr += (pix >> 16) & 0xFF;
+				rowg += (pix >> 8) & 0xFF;
+				rowb += pix & 0xFF;
+				s[k] = s[above] + rowr;
+				s[k + 1] = s[above + 1] + rowg;
+				s[k + 2] = s[above + 2] + rowb;
+				k += 3;
+				above += 3;
+			}
+		}
+	}
+
+	/**
+	 * Builds the luma table for an image in Processing ARGB format, reusing storage if it is large enough.
+	 * @param pixels   pixels of the image, row by row
+	 * @param width    width of the image
+	 * @param height   height of the image
+	 */
+	public void buildLuma(int[] pixels, int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 1;
+		this.luma = true;
+		int size = stride * (height + 1);
+		if (lumaSums.length < size) lumaSums = new int[size];
+		int[] s = lumaSums;
+		// row 0 and column 0 are all zeros
+		for (int k = 0; k < stride; k++) {
+			s[k] = 0;
+		}
+		for (int y = 0; y < height; y++) {
+			int p = y * width;
+			int k = (y + 1) * stride;
+			int above = k - stride;
+			s[k++] = 0;
+			above++;
+			int row = 0;
+			for (int x = 0; x < width; x++) {
+				int pix = pixels[p++];
+				row += (77 * ((pix >> 16) & 0xFF) + 150 * ((pix >> 8) & 0xFF) + 29 * (pix & 0xFF)) >> 8;
+				s[k++] = s[above++] + row;
+			}
+		}
+	}
+
+	/**
+	 * Sums luma over a rectangle of pixels, corners included, after buildLuma(). Coordinates must lie within the image.
+	 * @param x1   left edge
+	 * @param y1   top edge
+	 * @param x2   right edge
+	 * @param y2   bottom edge
+	 * @return     sum of luma over the rectangle
+	 */
+	public int luma(int x1, int y1, int x2, int y2) {
+		int[] s = lumaSums;
+		int top = y1 * stride;
+		int bottom = (y2 + 1) * stride;
+		return s[bottom + x2 + 1] - s[bottom + x1] - s[top + x2 + 1] + s[top + x1];
+	}
+
+	/**
+	 * Sums a channel over a rectangle of pixels, corners included. Coordinates must lie within the image.
+	 * @param channel   RED, GREEN or BLUE
+	 * @param x1        left edge
+	 * @param y1        top edge
+	 * @param x2        right edge
+	 * @param y2        bottom edge
+	 * @return          sum of the channel over the rectangle
+	 */
+	public int sum(int channel, int x1, int y1, int x2, int y2) {
+		int[] s = sums;
+		int top = y1 * stride;
+		int bottom = (y2 + 1) * stride;
+		return s[3 * (bottom + x2 + 1) + channel] - s[3 * (bottom + x1) + channel] 
+				- s[3 * (top + x2 + 1) + channel] + s[3 * (top + x1) + channel];
+	}
+
+	/**
+	 * Sums red, green and blue over a rectangle of pixels, corners included. Coordinates must lie within the image.
+	 * @param x1    left edge
+	 * @param y1    top edge
+	 * @param x2    right edge
+	 * @param y2    bottom edge
+	 * @param out   caller-owned array of at least 3 ints, receives the sums {r, g, b}
+	 */
+	public void sums(int x1, int y1, int x2, int y2, int[] out) {
+		int[] s = sums;
+		int top = y1 * stride;
+		int bottom = (y2 + 1) * stride;
+		int br = 3 * (bottom + x2 + 1);
+		int bl = 3 * (bottom + x1);
+		int tr = 3 * (top + x2 + 1);
+		int tl = 3 * (top + x1);
+		out[0] = s[br] - s[bl] - s[tr] + s[tl];
+		out[1] = s[br + 1] - s[bl + 1] - s[tr + 1] + s[tl + 1];
+		out[2] = s[br + 2] - s[bl + 2] - s[tr + 2] + s[tl + 2];
+	}
+
+	/**
+	 * Averages a channel over a rectangle of pixels, corners included, clipped to the image.
+	 * @param channel   RED, GREEN or BLUE
+	 * @param x1        left edge
+	 * @param y1        top edge
+	 * @param x2        right edge
+	 * @param y2        bottom edge
+	 * @return          average value of the channel over the part of the rectangle inside the image
+	 */
+	public float average(int channel, int x1, int y1, int x2, int y2) {
+		if (x1 < 0) x1 = 0;
+		if (x2 >= width) x2 = width - 1;
+		if (y1 < 0) y1 = 0;
+		if (y2 >= height) y2 = height - 1;
+		int n = (x2 - x1 + 1) * (y2 - y1 + 1);
+		return sum(channel, x1, y1, x2, y2) / (float) n;
+	}
+
+	/**
+	 * Averages luma over a rectangle of pixels, corners included, clipped to the image, which it must overlap.
+	 * Reads the luma table if buildLuma() was called last, otherwise weighs the sums of the color tables.
+	 * @param x1   left edge
+	 * @param y1   top edge
+	 * @param x2   right edge
+	 * @param y2   bottom edge
+	 * @return     average luma over the part of the rectangle inside the image
+	 */
+	public float averageLuma(int x1, int y1, int x2, int y2) {
+		if (x1 < 0) x1 = 0;
+		if (x2 >= width) x2 = width - 1;
+		if (y1 < 0) y1 = 0;
+		if (y2 >= height) y2 = height - 1;
+		int n = (x2 - x1 + 1) * (y2 - y1 + 1);
+		if (luma) return luma(x1, y1, x2, y2) / (float) n;
+		long sum = 77L * sum(RED, x1, y1, x2, y2) + 150L * sum(GREEN, x1, y1, x2, y2) + 29L * sum(BLUE, x1, y1, x2, y2);
+		return sum / (256.0f * n);
+	}
+
+	/**
+	 * @return width of the image the tables were built from
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the image the tables were built from
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+}
@@ -0,0 +1,226 @@
+package com.ignofactory.steering;
+
+import java.util.Arrays;
+
+import processing.core.*;
+
+/**
+ * Keeps a composite of two layers: a base, usually the offscreen PGraphics that boid trails are drawn into,
+ * and an overlay with alpha that does not change, such as a texture. A third layer with alpha may be set
+ * over both with setTop(), for drawing that changes, such as trails that are still growing. The composite is only recalculated
+ * where the base was marked dirty since the last update(), so a frame in which nothing was drawn into the
+ * base costs one copy of the composite to the display, background(layers.update()), instead of a copy
+ * of the base and a blend of the overlay over the whole window.
+ *
+ * Whoever draws into the base or the top layer must call markDirty(), with the bounds of the drawing if they are known.
+ * Dirty regions are tracked in square tiles, so that many small drawings scattered over the base,
+ * such as a segment of trail for each boid, only recomposite the tiles they touch.
+ * The overlay is scaled to the size of the base once, when it is set.
+ */
+public class LayerCompositor {
+	PApplet parent;
+	/** the layer under, opaque */
+	PImage base;
+	/** the layer over, with alpha, as it was passed to setOverlay() */
+	PImage overlay;
+	/** pixels of the overlay, scaled to the size of the base */
+	int[] over;
+	/** the layer over the overlay, with alpha, the same size as the base, or null */
+	PImage top;
+	/** base and overlay, composited */
+	PImage composite;
+	int width;
+	int height;
+	/** side of the tiles that dirty regions are tracked in, in pixels */
+	static final int TILE = 32;
+	/** dirty tiles, row by row */
+	boolean[] tiles;
+	int tilesWide;
+	int tilesHigh;
+	/** true if any tile is dirty */
+	boolean dirty;
+	/** true if the whole base is dirty, whatever tiles says */
+	boolean allDirty;
+
+	/**
+	 * @param parent    the PApplet instance
+	 * @param base      the layer under, opaque, which sets the size of the composite
+	 * @param overlay   the layer over, with alpha, scaled to the size of base
+	 */
+	public LayerCompositor(PApplet parent, PImage base, PImage overlay) {
+		this.parent = parent;
+		this.overlay = overlay;
+		setBase(base);
+	}
+
+	/**
+	 * Composites the dirty rectangle, if there is one.
+	 * @return the composite, with the same size as the base
+	 */
+	public PImage update() {
+		if (!dirty) return composite;
+		base.loadPixels();
+		composite.loadPixels();
+		int[] b = base.pixels;
+		int[] c = composite.pixels;
+		int[] t = null;
+		if (null != top) {
+			top.loadPixels();
+			t = top.pixels;
+		}
+		if (allDirty) {
+			composite(b, t, c, 0, width, 0, height);
+		}
+		else {
+			// composite each horizontal run of dirty tiles as one rectangle
+			for (int ty = 0; ty < tilesHigh; ty++) {
+				int row = ty * tilesWide;
+				int tx = 0;
+				while (tx < tilesWide) {
+					if (!tiles[row + tx]) {
+						tx++;
+						continue;
+					}
+					int start = tx;
+					while (tx < tilesWide && tiles[row + tx]) tx++;
+					composite(b, t, c, start * TILE, Math.min(width, tx * TILE),
+							ty * TILE, Math.min(height, (ty + 1) * TILE));
+				}
+			}
+		}
+		composite.updatePixels();
+		Arrays.fill(tiles, false);
+		dirty = false;
+		allDirty = false;
+		return composite;
+	}
+
+	/**
+	 * Composites a rectangle: the overlay over the base, then the top layer, if there is one, over both.
+	 */
+	void composite(int[] b, int[] t, int[] c, int x0, int x1, int y0, int y1) {
+		ImageUtil.blendOver(b, over, c, width, x0, x1, y0, y1);
+		if (null != t) ImageUtil.blendOver(c, t, c, width, x0, x1, y0, y1);
+	}
+
+	/**
+	 * Marks the whole base as changed.
+	 */
+	public void markDirty() {
+		dirty = true;
+		allDirty = true;
+	}
+
+	/**
+	 * Marks a rectangle of the base as changed, with the tiles it touches.
+	 * @param left     left edge
+	 * @param top      top edge
+	 * @param right    right edge
+	 * @param bottom   bottom edge
+	 */
+	public void markDirty(float left, float top, float right, float bottom) {
+		int x0 = Math.max(0, (int) Math.floor(left));
+		int y0 = Math.max(0, (int) Math.floor(top));
+		int x1 = Math.min(width, (int) Math.ceil(right) + 1);
+		int y1 = Math.min(height, (int) Math.ceil(bottom) + 1);
+		if (x1 <= x0 || y1 <= y0 || allDirty) return;
+		int tx1 = (x1 - 1) / TILE;
+		int ty1 = (y1 - 1) / TILE;
+		for (int ty = y0 / TILE; ty <= ty1; ty++) {
+			int row = ty * tilesWide;
+			for (int tx = x0 / TILE; tx <= tx1; tx++) {
+				tiles[row + tx] = true;
+			}
+		}
+		dirty = true;
+	}
+
+	/**
+	 * @return true if part of the base changed since the last update()
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Sets the layer under, for example after it was resized, and marks it all dirty.
+	 * Reallocates the composite and rescales the overlay only if the size changed.
+	 * @param base   the layer under, opaque
+	 */
+	public void setBase(PImage base) {
+		this.base = base;
+		if (null == composite || base.width != width || base.height != height) {
+			width = base.width;
+			height = base.height;
+			composite = parent.createImage(width, height, PApplet.RGB);
+			tilesWide = (width + TILE - 1) / TILE;
+			tilesHigh = (height + TILE - 1) / TILE;
+			tiles = new boolean[tilesWide * tilesHigh];
+			scaleOverlay();
+		}
+		markDirty();
+	}
+
+	/**
+	 * Sets the layer over and marks the whole composite dirty.
+	 * @param overlay   the layer over, with alpha, scaled to the size of the base
+	 */
+	public void setOverlay(PImage overlay) {
+		this.overlay = overlay;
+		scaleOverlay();
+		markDirty();
+	}
+
+	/**
+	 * Sets the layer over the overlay and marks the whole composite dirty.
+	 * @param top   a layer with alpha, the same size as the base, such as a transparent PGraphics, or null for none
+	 */
+	public void setTop(PImage top) {
+		this.top = top;
+		markDirty();
+	}
+
+	/**
+	 * Copies the overlay's pixels at the size of the base, smoothly scaled if the sizes differ.
+	 */
+	void scaleOverlay() {
+		PImage scaled = parent.createImage(overlay.width, overlay.height, PApplet.ARGB);
+		overlay.loadPixels();
+		scaled.loadPixels();
+		PApplet.arrayCopy(overlay.pixels, scaled.pixels);
+		scaled.updatePixels();
+		if (overlay.width != width || overlay.height != height) {
+			scaled.resize(width, height);
+			scaled.loadPixels();
+		}
+		over = scaled.pixels;
+	}
+
+	/**
+	 * @return the composite, as of the last update()
+	 */
+	public PImage getImage() {
+		return composite;
+	}
+
+	/**
+	 * @return the layer under
+	 */
+	public PImage getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the layer over
+	 */
+	public PImage getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * @return the layer over the overlay, or null
+	 */
+	public PImage getTop() {
+		return top;
+	}
+}
@@ -1,8 +1,11 @@
 package com.ignofactory.steering;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import processing.core.*;
-import processing.video.*;
 
 // TODO eliminate edge artifacts (vectors point parallel to edge)
 // make motion fit to torus
@@ -59,10 +62,10 @@ public class OpticalFlower {
 	///////////////////////////////////////////////
 	 */
 	
-	Capture video;
-	String[] videoDevices;
+	FrameSource source;             // delivers video frames, a CaptureSource unless set with setSource()
+	boolean ownSource = false;      // did init() create source from the video parameters?
+	PImage image;                   // the latest frame, as passed to the responder: the source's own image, if it has one, except in asynchronous mode
 	PFont font;
-	int[] vline;
 	
 	// flow line color
 	int flowColor;
@@ -84,9 +87,22 @@ public class OpticalFlower {
 	float df;
 	float vs;                       // vector scaling factor
 
-	// regression vectors
-	float[] fx, fy, ft;
-	int fm = 3 * 9;                 // length of the vectors
+	// regression: 9 neighbouring grid cells in 3 channels, or in 1 in luma mode
+	boolean luma = false;           // track luma only, instead of red, green and blue? set with setVideoParams()
+	int[] next9;                    // offsets of the 9 neighbours of a grid cell, in the order of the regression vectors
+	float[][] dxc, dyc, dtc;        // derivative arrays by channel (red, green, blue, or just luma)
+	int tileCells = 64;             // width of a tile of grid cells in the sweeps
+	// sparse mode
+	boolean sparse = false;         // only solve flow where the image changed?
+	float motionThresh = 2.0f;      // change in average r + g + b at a grid cell between frames that counts as motion
+	float[] motion;                 // |dtr| + |dtg| + |dtb| at each grid cell
+	boolean[] active;               // true for cells with motion in their 3 x 3 neighbourhood, where flow is solved
+	// pyramid mode
+	int pyramidLevels = 1;          // levels of flow, each coarser one doubling the grid step, 1 for the grid alone
+	PyramidLevel[] levels;          // the coarser levels, levels[0] with grid step 2 * gs, null if pyramidLevels is 1
+	int[] pyramidParent;            // index of the nearest cell of levels[0] for each grid cell
+	float[] qar, qag, qab;          // averaged grid values of this frame, shifted by the flow of levels[0]
+	float refineThresh = 0.25f;     // flow of levels[0], in pixels per frame, above which grid cells refine it
 
 	// regularization term for regression
 	float fc = PApplet.pow(10, 8);          // larger values for noisy video
@@ -101,7 +117,7 @@ public class OpticalFlower {
 	boolean flagimage = false;      // show video image ?
 
 	// internally used variables
-	float ar, ag, ab;               // used as return value of pixave
+	IntegralImage integral = new IntegralImage();   // per-channel summed-area tables of the current frame
 	float[] dtr, dtg, dtb;          // differentiation by t (red, green, blue)
 	float[] dxr, dxg, dxb;          // differentiation by x (red, green, blue)
 	float[] dyr, dyg, dyb;          // differentiation by y (red, green, blue)
@@ -109,8 +125,32 @@ public class OpticalFlower {
 	float[] flowx, flowy;           // computed optical flow
 	float[] sflowx, sflowy;                 // slowly changing version of the flow
 	int clockNow, clockPrev, clockDiff;     // for timing check
-	private PVector[] flowList;
+	private PVector[] flowList;             // flow vectors, allocated once and updated in place
+	FlowField current;              // flow read by getFlow() etc.: syncField, or the front field in asynchronous mode
+	FlowField syncField;            // flow computed by flow() in synchronous mode
+	FlowField target;               // field the vectors sweep writes into
 	boolean isFirstSweep = true;
+	// parallel sweeps
+	boolean parallel = false;       // split sweeps into bands of grid rows on the common ForkJoinPool?
+	int band;                       // number of grid rows in a band, set for each frame
+	int minParallel = 8;            // fewest grid rows for which sweeps run in parallel
+	FlowScratch scratch = new FlowScratch();     // scratch for sweeps on the calling thread
+	final ThreadLocal<FlowScratch> workerScratch = new ThreadLocal<FlowScratch>();  // scratch for pool threads
+	static final int AVERAGE = 0, DIFFERENTIATE = 1, SOLVE = 2, VECTORS = 3;    // sweeps
+	// asynchronous mode
+	boolean async = false;          // compute flow on a worker thread?
+	Thread worker;                  // reads frames and computes flow when async is true
+	volatile boolean workerRunning = false;
+	FlowField[] fields;             // three fields passed between the worker and flow() (a triple buffer)
+	int[][] frames;                 // mirrored pixels of the frame each field was computed from, passed along with it
+	AtomicInteger middle;           // index of the middle field, ORed with FRESH when the worker published it since flow() last took it
+	static final int FRESH = 4;
+	int back;                       // index of the field the worker writes
+	int front;                      // index of the field flow() and getFlow() read
+	long framesComputed = 0;        // frames flow has been computed for
+	// recording and playback
+	volatile FlowRecorder recorder; // records each FlowField computed, when not null
+	FlowReplayer replayer;          // when not null, flow() plays back recorded flow instead of computing it
 
 	int[] xcoords;
 	int[] ycoords;
@@ -128,11 +168,44 @@ public class OpticalFlower {
 	 * @param cameraName    the camera to use
 	 */
 	public OpticalFlower(PApplet parent, int wscreen, int hscreen, int fps, int gs, float predsec, String cameraName) {
+		this(parent, wscreen, hscreen, fps, gs, predsec, cameraName, false);
+	}
+	
+	/**
+	 * @param parent        the PApplet instance
+	 * @param wscreen       width of video
+	 * @param hscreen       height of video
+	 * @param fps           frames per second, 30 is recommended
+	 * @param gs            number of pixels in a grid tile
+	 * @param predsec       prediction interval
+	 * @param cameraName    the camera to use
+	 * @param luma          true to compute flow from luma only, see setVideoParams()
+	 */
+	public OpticalFlower(PApplet parent, int wscreen, int hscreen, int fps, int gs, float predsec, String cameraName, boolean luma) {
 		this.parent = parent;
-		setVideoParams(wscreen, hscreen, fps, gs, predsec, cameraName);
+		setVideoParams(wscreen, hscreen, fps, gs, predsec, cameraName, luma);
 	}
 	
 	public void setVideoParams(int wscreen, int hscreen, int fps, int gs, float predsec, String cameraName) {
+		setVideoParams(wscreen, hscreen, fps, gs, predsec, cameraName, luma);
+	}
+	
+	/**
+	 * Sets video parameters, which take effect at the next call to init(). In luma mode each pixel is 
+	 * converted to luma once, as the summed-area table is built, and averages, derivatives and the 
+	 * regression use that single channel: 9 samples per grid cell instead of 27, and a third of the 
+	 * arrays. Luma is plenty for the gross motion that steers boids, but misses motion between
+	 * regions of different hue and equal brightness.
+	 * @param wscreen       width of video
+	 * @param hscreen       height of video
+	 * @param fps           frames per second, 30 is recommended
+	 * @param gs            number of pixels in a grid tile
+	 * @param predsec       prediction interval
+	 * @param cameraName    the camera to use
+	 * @param luma          true to compute flow from luma only, false to use red, green and blue
+	 */
+	public void setVideoParams(int wscreen, int hscreen, int fps, int gs, float predsec, String cameraName, boolean luma) {
+		this.luma = luma;
 		this.wscreen = wscreen;
 		this.hscreen = hscreen;
 		this.fps = fps;
@@ -150,14 +223,47 @@ public class OpticalFlower {
 //	}
 
 	public boolean init(){
-		// set up video capture
+		// the worker uses the arrays we are about to replace, and a recording can't change grid size
+		stopWorker();
+		stopRecording();
+		// set up video capture, unless frames come from a source set with setSource(), or flow from a recording
+		if (null != replayer) {
+			if (null != source) source.stop();
+			if (!replayer.open()) {
+				PApplet.println("Failed to open flow recording "+ replayer.getPath());
+				return false;
+			}
+			wscreen = replayer.getWscreen();
+			hscreen = replayer.getHscreen();
+			gs = replayer.getGs();
+		}
+		else if (null == source || ownSource) {
+			if (null != source) source.stop();
+			source = new CaptureSource(parent, wscreen, hscreen, cameraName, fps);
+			ownSource = true;
+		}
+		else {
+			wscreen = source.getWidth();
+			hscreen = source.getHeight();
+		}
+		image = null;
 		PApplet.println("init: ", parent, wscreen, hscreen, cameraName, fps);
-		if (!validateVideoParams(wscreen, hscreen, cameraName, fps)) {
+		if (null != replayer) {
+			// no video: recorded flow only
+		}
+		else if (!source.start()) {
 			PApplet.println("Failed to initialize video. Device not found.");
 			return false;
 		}
-		video = new Capture(parent, wscreen, hscreen, cameraName, fps);
-		video.start();
+		if (null != replayer) {
+			// no video, so the responder gets a null image, as replay() says
+		}
+		else if (null != source.getImage() && !async) {
+			image = source.getImage();
+		}
+		else {
+			image = parent.createImage(wscreen, hscreen, PApplet.RGB);
+		}
 		// font
 		font = parent.createFont("Verdana", 10);
 		parent.textFont(font);
@@ -175,37 +281,83 @@ public class OpticalFlower {
 		flowScale = vs;
 		PApplet.println("vs = "+ vs);
 		// arrays
+		// in luma mode the red arrays hold luma, and green and blue are not used
 		par = new float[gw * gh];
-		pag = new float[gw * gh];
-		pab = new float[gw * gh];
 		dtr = new float[gw * gh];
-		dtg = new float[gw * gh];
-		dtb = new float[gw * gh];
 		dxr = new float[gw * gh];
-		dxg = new float[gw * gh];
-		dxb = new float[gw * gh];
 		dyr = new float[gw * gh];
-		dyg = new float[gw * gh];
-		dyb = new float[gw * gh];
+		if (luma) {
+			pag = pab = dtg = dtb = dxg = dxb = dyg = dyb = null;
+		}
+		else {
+			pag = new float[gw * gh];
+			pab = new float[gw * gh];
+			dtg = new float[gw * gh];
+			dtb = new float[gw * gh];
+			dxg = new float[gw * gh];
+			dxb = new float[gw * gh];
+			dyg = new float[gw * gh];
+			dyb = new float[gw * gh];
+		}
 		flowx = new float[gw * gh];
 		flowy = new float[gw * gh];
 		sflowx = new float[gw * gh];
 		sflowy = new float[gw * gh];
-		fx = new float[fm];
-		fy = new float[fm];
-		ft = new float[fm];
-		vline = new int[wscreen];        // color array
-		flowList = new PVector[gw * gh]; // flow vectors
+		motion = new float[gw * gh];
+		active = new boolean[gw * gh];
+		if (luma) {
+			dxc = new float[][] { dxr };
+			dyc = new float[][] { dyr };
+			dtc = new float[][] { dtr };
+		}
+		else {
+			dxc = new float[][] { dxr, dxg, dxb };
+			dyc = new float[][] { dyr, dyg, dyb };
+			dtc = new float[][] { dtr, dtg, dtb };
+		}
+		// center, left, right, up, down, up left, up right, down left, down right
+		next9 = new int[] { 0, -1, 1, -gw, gw, -gw - 1, -gw + 1, gw - 1, gw + 1 };
+		// initPyramid() maps grid points to the coarser levels, so it needs the grid points of this grid
 		loadPoints();
+		initPyramid();
+		flowList = new PVector[gw * gh]; // flow vectors
+		for (int i = 0; i < flowList.length; i++) flowList[i] = new PVector();
+		syncField = new FlowField(gw, gh);
+		fields = new FlowField[] { new FlowField(gw, gh), new FlowField(gw, gh), new FlowField(gw, gh) };
+		front = 0;
+		middle = new AtomicInteger(1);
+		back = 2;
+		current = (async && null == replayer) ? fields[front] : syncField;
+		if (async && null == replayer) startWorker();
 		return true;
 	}
 	
 	public int getGs() {
 		return this.gs;
 	}
+	/**
+	 * @return the half width of the averaging window around each grid point, in video pixels
+	 */
+	public int getAs() {
+		return this.as;
+	}
+	/**
+	 * Sets the half width of the averaging window, which init() sets to twice the grid step. 
+	 * Averages come from summed-area tables, so larger windows cost no more than small ones.
+	 * @param as   half width of the averaging window, in video pixels
+	 */
+	public void setAs(int as) {
+		this.as = as;
+	}
 	public int getGw() {
 		return this.gw;
 	}
+	/**
+	 * @return true if flow is computed from luma only, see setVideoParams()
+	 */
+	public boolean isLuma() {
+		return this.luma;
+	}
 	public int getGh() {
 		return this.gh;
 	}
@@ -213,69 +365,106 @@ public class OpticalFlower {
 
 	// calculate average pixel value (r, g, b) for rectangle region
 	// called by first sweep in flow method
-	void pixave(int x1, int y1, int x2, int y2) {
-		float sumr, sumg, sumb;
-		int pix;                        // a color
-		int r, g, b;
+	// looks up sums in the integral image built at the start of the sweep, so the cost does not depend on window size
+	// writes {r, g, b} into out, so that sweeps on different threads don't share results, 
+	// sums is scratch for the integral image
+	void pixave(int x1, int y1, int x2, int y2, float[] out, int[] sums) {
 		int n;
 		// clip boundary values to bounds, if necessary
 		if(x1 < 0) x1 = 0;
 		if(x2 >= wscreen) x2 = wscreen - 1;
 		if(y1 < 0) y1 = 0;
 		if(y2 >= hscreen) y2 = hscreen - 1;
-		// set color channel sums to 0
-		sumr = sumg = sumb = 0.0f;
-		for(int y = y1; y <= y2; y++) {
-			for(int i = wscreen * y + x1; i <= wscreen * y + x2; i++) {
-				pix = video.pixels[i];
-				b = pix & 0xFF;       // blue
-				pix = pix >> 8;
-			    g = pix & 0xFF;       // green
-			    pix = pix >> 8;
-			    r = pix & 0xFF;       // red
-			    // averaging the values
-			    sumr += r;
-			    sumg += g;
-			    sumb += b;
-			}
-		}
 		n = (x2 - x1 + 1) * (y2 - y1 + 1);      // number of pixels
-		// store the results in ar, ag, ab for further calculation in first sweep in flow method
-		ar = sumr/n;
-		ag = sumg/n;
-		ab = sumb/n;
+		// store the results in out for further calculation in first sweep in flow method
+		integral.sums(x1, y1, x2, y2, sums);
+		out[0] = sums[0] / (float) n;
+		out[1] = sums[1] / (float) n;
+		out[2] = sums[2] / (float) n;
+	}
+
+	// calculate average luma for rectangle region, in luma mode
+	float lumave(int x1, int y1, int x2, int y2) {
+		// clip boundary values to bounds, if necessary
+		if(x1 < 0) x1 = 0;
+		if(x2 >= wscreen) x2 = wscreen - 1;
+		if(y1 < 0) y1 = 0;
+		if(y2 >= hscreen) y2 = hscreen - 1;
+		return integral.luma(x1, y1, x2, y2) / (float) ((x2 - x1 + 1) * (y2 - y1 + 1));
 	}
 
-	// extract values from 9 neighbour grids
-	void getnext9(float x[], float y[], int i, int j) {
-		y[j + 0] = x[i + 0];
-		y[j + 1] = x[i - 1];
-		y[j + 2] = x[i + 1];
-		y[j + 3] = x[i - gw];
-		y[j + 4] = x[i + gw];
-		y[j + 5] = x[i - gw - 1];
-		y[j + 6] = x[i - gw + 1];
-		y[j + 7] = x[i + gw - 1];
-		y[j + 8] = x[i + gw + 1];
+	// build the summed-area tables the first sweep averages from
+	void buildIntegral() {
+		int[] pixels = source.getPixels();
+		if (luma) integral.buildLuma(pixels, wscreen, hscreen);
+		else integral.build(pixels, wscreen, hscreen);
+	}
+
+	// set up the coarser levels of pyramid mode for the current grid
+	void initPyramid() {
+		levels = null;
+		pyramidParent = null;
+		qar = qag = qab = null;
+		if (pyramidLevels < 2) return;
+		ArrayList<PyramidLevel> list = new ArrayList<PyramidLevel>();
+		for (int k = 1; k < pyramidLevels; k++) {
+			int step = gs << k;
+			if (wscreen / step < 3 || hscreen / step < 3) break;
+			PyramidLevel level = new PyramidLevel(wscreen, hscreen, step);
+			if (k > 1) list.get(k - 2).parent = level.nearest(list.get(k - 2).xcoords, list.get(k - 2).ycoords);
+			list.add(level);
+		}
+		if (list.isEmpty()) return;
+		levels = list.toArray(new PyramidLevel[list.size()]);
+		pyramidParent = levels[0].nearest(xcoords, ycoords);
+		qar = new float[gw * gh];
+		if (!luma) {
+			qag = new float[gw * gh];
+			qab = new float[gw * gh];
+		}
+	}
+
+	// solve the coarser levels of pyramid mode, coarsest first, each starting from the flow of the one above it
+	// regularization: 1/9 for a single channel, as in luma mode, and 1/16 for each doubling of the averaging window,
+	// which halves the noise in averages and so in derivatives, whose fourth power fc is weighed against
+	void computePyramid() {
+		if (null == levels) return;
+		for (int k = levels.length - 1; k >= 0; k--) {
+			float fck = fc / 9 / (1 << (4 * (k + 1)));
+			levels[k].compute(integral, k + 1 < levels.length ? levels[k + 1] : null, fck);
+		}
 	}
 
 	// solve optical flow by least squares (regression analysis)
+	// the regression vectors hold the x, y and t derivatives at the 9 neighbour grids (see next9) 
+	// in each of the 3 channels, or in luma only, read straight from the derivative arrays instead of being copied first
 	void solveflow(int ig) {
 		float xx, xy, yy, xt, yt;
 		float a, u, v, w;
 
-		// prepare covariances
+		// prepare covariances, in the same order as the original regression vectors: red, green, blue
 		xx = xy = yy = xt = yt = 0.0f;
-		for(int i = 0; i < fm; i++) {
-			xx += fx[i] * fx[i];
-			xy += fx[i] * fy[i];
-			yy += fy[i] * fy[i];
-			xt += fx[i] * ft[i];
-			yt += fy[i] * ft[i];
+		for(int c = 0; c < dxc.length; c++) {
+			float[] dx = dxc[c];
+			float[] dy = dyc[c];
+			float[] dt = dtc[c];
+			for(int k = 0; k < 9; k++) {
+				int i = ig + next9[k];
+				float fx = dx[i];
+				float fy = dy[i];
+				float ft = dt[i];
+				xx += fx * fx;
+				xy += fx * fy;
+				yy += fy * fy;
+				xt += fx * ft;
+				yt += fy * ft;
+			}
 		}
 
 		// least squares computation
-		a = xx * yy - xy * xy + fc;       // fc is for stable computation
+		// for a gray image the covariances of the 3 channels are 3 times those of luma, and their products 9 times,
+		// so scaling fc by 1/9 in luma mode gives both modes the same flow for gray images
+		a = xx * yy - xy * xy + (luma ? fc / 9 : fc);       // fc is for stable computation
 		u = yy * xt - xy * yt;            // x direction
 		v = xx * yt - xy * xt;            // y direction
 
@@ -306,121 +495,821 @@ public class OpticalFlower {
 	// since they never change after the first time through
 	// calculate 2D vector array, draw it over parent display on request
 	// also call callback method to display video on request
+	// in asynchronous mode, only calls the responder when the worker has published new flow
 	public void flow() {
-		if(video.available()){
-			// video capture
-			video.read();
+		if (null != replayer) {
+			replay();
+			return;
+		}
+		if (async) {
+			deliver();
+			return;
+		}
+		if(source.available()){
+			// video capture, mirrored before any other calculations
+			readFrame();
 			// clock in msec
 			clockNow = parent.millis();
 			clockDiff = clockNow - clockPrev;
 			clockPrev = clockNow;
 			
-			// mirror, before any other calculations
-			if(flagmirror) {
-				for(int y = 0; y < hscreen; y++) {
-					int ig = y * wscreen;
-					for(int x = 0; x < wscreen; x++)
-						vline[x] = video.pixels[ig + x];
-					for(int x = 0; x < wscreen; x++)
-						video.pixels[ig + x] = vline[wscreen - 1 - x];
-				}
-			}
-			
 			// draw image
 			if(flagimage) {
 				if (null != responder) {
-					responder.videoCallback(video);
+					responder.videoCallback(image);
 					// PApplet.println("callback");
 				}
 				else {
-					if (video.available()) (parent).set(0, 0, video);
+					if (source.available()) (parent).set(0, 0, image);
 					// PApplet.println("null responder");
 				}
 			}
 
-			// 1st sweep: differentiation by time
-			for(int ix = 0; ix < gw; ix++) {
-				int x0 = ix * gs + gs2;
-				for(int iy = 0; iy < gh; iy++) {
+			// sums over the averaging windows come from summed-area tables, built in one pass over the frame
+			buildIntegral();
+			computePyramid();
+			// each sweep reads results of the previous sweep from neighboring grid cells, 
+			// so a sweep finishes on all rows before the next one starts
+			runSweep(AVERAGE);
+			runSweep(DIFFERENTIATE);
+			runSweep(SOLVE);
+			target = syncField;
+			target.frame = ++framesComputed;
+			target.timestamp = source.getTimestamp();
+			runSweep(VECTORS);
+			record(target);
+			updateFlowList();
+			if(flagflow) {
+				// callback handles drawing
+				responder.vectorCallback(image);
+			}
+			isFirstSweep = false;
+			
+			if (null != responder) responder.actionCallback(image);
+		}
+	}
+
+	// read the newest frame from the source, mirror it if flagmirror is true, and copy it into image 
+	// unless image is the source's own image, which already holds it
+	void readFrame() {
+		source.read();
+		int[] pixels = source.getPixels();
+		if(flagmirror) mirror(pixels);
+		if (image.pixels != pixels) {
+			System.arraycopy(pixels, 0, image.pixels, 0, wscreen * hscreen);
+			image.updatePixels();
+		}
+	}
+	
+	// mirror the video image horizontally
+	void mirror(int[] pixels) {
+		ImageUtil.mirror(pixels, pixels, wscreen, hscreen);
+	}
+
+	/**
+	 * Called by flow() when playing back a recording: if a new record is due, reads it into syncField and 
+	 * calls the responder as flow() does for video, except for videoCallback(), as there is no video. 
+	 * vectorCallback() and actionCallback() get a null image. 
+	 */
+	void replay() {
+		if (!replayer.next(syncField)) return;
+		current = syncField;
+		updateFlowList();
+		// clock in msec
+		clockNow = parent.millis();
+		clockDiff = clockNow - clockPrev;
+		clockPrev = clockNow;
+		if(flagflow && null != responder) {
+			responder.vectorCallback(image);
+		}
+		isFirstSweep = false;
+		if (null != responder) responder.actionCallback(image);
+	}
+
+	// append flow to the recording, if there is one
+	void record(FlowField field) {
+		FlowRecorder r = recorder;
+		if (null != r) r.record(field);
+	}
+
+	/**
+	 * Called by flow() in asynchronous mode: if the worker has published a FlowField since the last call,
+	 * passes the video to the responder, as flow() does in synchronous mode. Never waits for the worker.
+	 */
+	void deliver() {
+		if (!acquire()) return;
+		// clock in msec
+		clockNow = parent.millis();
+		clockDiff = clockNow - clockPrev;
+		clockPrev = clockNow;
+		// copy the frame the published field was computed from: the worker may already be reading the next one
+		image.loadPixels();
+		System.arraycopy(frames[front], 0, image.pixels, 0, wscreen * hscreen);
+		image.updatePixels();
+		if(flagimage) {
+			if (null != responder) {
+				responder.videoCallback(image);
+			}
+			else {
+				(parent).set(0, 0, image);
+			}
+		}
+		if(flagflow && null != responder) {
+			responder.vectorCallback(image);
+		}
+		isFirstSweep = false;
+		if (null != responder) responder.actionCallback(image);
+	}
+
+	/**
+	 * Takes the field most recently published by the worker, if it has published one since the last call.
+	 * @return true if there was a new field
+	 */
+	boolean acquire() {
+		if ((middle.get() & FRESH) == 0) return false;
+		front = middle.getAndSet(front) & 3;
+		current = fields[front];
+		updateFlowList();
+		return true;
+	}
+
+	/**
+	 * Worker loop for asynchronous mode: reads the newest frame from the source whenever one is available,
+	 * computes flow into the back FlowField and swaps it with the middle one, along with a copy of the frame, so that
+	 * flow() gets the frame the flow was computed from and never the source's own pixels, which the worker writes.
+	 * Frame sources keep only the newest frame, so frames that arrive while flow is being computed are dropped rather than queued.
+	 */
+	void work() {
+		while (workerRunning) {
+			if (!source.available()) {
+				// wait a millisecond for the camera
+				LockSupport.parkNanos(1000000L);
+				continue;
+			}
+			source.read();
+			int[] pixels = source.getPixels();
+			if (flagmirror) mirror(pixels);
+			System.arraycopy(pixels, 0, frames[back], 0, wscreen * hscreen);
+			buildIntegral();
+			computePyramid();
+			runSweep(AVERAGE);
+			runSweep(DIFFERENTIATE);
+			runSweep(SOLVE);
+			target = fields[back];
+			target.frame = ++framesComputed;
+			target.timestamp = source.getTimestamp();
+			runSweep(VECTORS);
+			record(target);
+			back = middle.getAndSet(back | FRESH) & 3;
+		}
+	}
+
+	void startWorker() {
+		if (workerRunning || null == image) return;
+		if (image == getVideo()) {
+			// the worker reads frames into the source's image, so the responder gets a copy in an image of our own
+			image = parent.createImage(wscreen, hscreen, PApplet.RGB);
+		}
+		if (null == frames || frames[0].length != wscreen * hscreen) {
+			frames = new int[3][wscreen * hscreen];
+		}
+		workerRunning = true;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				work();
+			}
+		}, "OpticalFlower");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	void stopWorker() {
+		if (!workerRunning) return;
+		workerRunning = false;
+		try {
+			worker.join();
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		worker = null;
+	}
+
+	/**
+	 * Starts recording each FlowField computed from video to a file, which a FlowReplayer can play back, 
+	 * see setReplayer(). Call after init(). Stops any recording already running.
+	 * @param path   path of the file to write, replaced if it exists
+	 * @return       true if the file could be created
+	 */
+	public boolean startRecording(String path) {
+		stopRecording();
+		FlowRecorder r = new FlowRecorder(path);
+		if (!r.open(wscreen, hscreen, gs, gw, gh)) return false;
+		recorder = r;
+		return true;
+	}
+
+	/**
+	 * Stops recording and closes the file.
+	 */
+	public void stopRecording() {
+		FlowRecorder r = recorder;
+		recorder = null;
+		if (null != r) r.close();
+	}
+
+	/**
+	 * @return true if flow is being recorded
+	 */
+	public boolean isRecording() {
+		return null != recorder;
+	}
+
+	/**
+	 * @return the FlowRecorder writing flow, or null if flow is not being recorded
+	 */
+	public FlowRecorder getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Plays back recorded flow in place of video, for tuning and for machines with no camera. 
+	 * Takes effect at the next call to init(), which opens the recording and takes the size of video
+	 * and of the grid from it. After that, each call to flow() takes the record that is due, if it has 
+	 * not already been taken, and getFlow(), getFlowList() and the other flow methods return it. 
+	 * Set the speed of playback with FlowReplayer.setSpeed(). 
+	 * @param replayer   a FlowReplayer, or null to compute flow from video again, after the next init()
+	 */
+	public void setReplayer(FlowReplayer replayer) {
+		stopWorker();
+		if (null != this.replayer) this.replayer.close();
+		this.replayer = replayer;
+	}
+
+	/**
+	 * @return the FlowReplayer playing back recorded flow, or null if flow is computed from video
+	 */
+	public FlowReplayer getReplayer() {
+		return replayer;
+	}
+
+	/**
+	 * @return number of levels of flow, 1 if pyramid mode is off
+	 */
+	public int getPyramidLevels() {
+		return pyramidLevels;
+	}
+
+	/**
+	 * In pyramid mode, flow is first solved on grids of 2, 4 or 8 times the grid step, from coarse to fine. 
+	 * Each level averages the current frame at its grid points shifted by the flow of the next coarser level, 
+	 * which summed-area tables make as cheap as unshifted averages, and solves for the remaining flow only. 
+	 * Motions several grid steps long are caught by the coarse levels, which have a fraction of the cells, and 
+	 * refined on the grid where the flow of the next coarser level is larger than refineThresh. Elsewhere the 
+	 * coarser flow is used as it is, so motion too small for the coarse levels to see may be missed. 
+	 * Coarse levels track luma only. Levels with fewer than 3 x 3 cells are left out. 
+	 * @param pyramidLevels   number of levels, counting the grid, 1 to turn pyramid mode off, at most 4
+	 */
+	public void setPyramidLevels(int pyramidLevels) {
+		pyramidLevels = Math.max(1, Math.min(4, pyramidLevels));
+		if (pyramidLevels == this.pyramidLevels) return;
+		boolean running = workerRunning;
+		stopWorker();
+		this.pyramidLevels = pyramidLevels;
+		if (null != par) initPyramid();
+		if (running) startWorker();
+	}
+
+	/**
+	 * @return flow of the next coarser level, in pixels per frame, above which pyramid mode refines flow on the grid
+	 */
+	public float getRefineThresh() {
+		return refineThresh;
+	}
+
+	/**
+	 * @param refineThresh   flow of the next coarser level, in pixels per frame, above which pyramid mode refines flow on the grid
+	 */
+	public void setRefineThresh(float refineThresh) {
+		this.refineThresh = refineThresh;
+	}
+
+	/**
+	 * @return true if flow is only solved where the image changed
+	 */
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	/**
+	 * In sparse mode, the regression is only solved for grid cells where the average color of some
+	 * cell in the 3 x 3 neighbourhood changed by more than motionThresh since the last frame. Elsewhere
+	 * flow is taken to be 0 and the smoothed flow decays towards 0 at the smoothing rate, as it would
+	 * for a perfectly still image. In quiet scenes most of the regression work is skipped.
+	 * @param sparse   true to solve flow only where the image changed
+	 */
+	public void setSparse(boolean sparse) {
+		this.sparse = sparse;
+	}
+
+	/**
+	 * @return change in average r + g + b at a grid cell that counts as motion in sparse mode
+	 */
+	public float getMotionThresh() {
+		return motionThresh;
+	}
+
+	/**
+	 * @param motionThresh   change in average r + g + b at a grid cell between frames that counts as motion in sparse mode
+	 */
+	public void setMotionThresh(float motionThresh) {
+		this.motionThresh = motionThresh;
+	}
+
+	/**
+	 * @return the number of grid cells where flow was solved in the last frame in sparse mode
+	 */
+	public int getActiveCells() {
+		if (!sparse) return (gw - 2) * (gh - 2);
+		int n = 0;
+		for (int iy = 1; iy < gh - 1; iy++) {
+			for (int ix = 1; ix < gw - 1; ix++) {
+				if (active[iy * gw + ix]) n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return true if flow is computed on a worker thread
+	 */
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * In asynchronous mode a worker thread reads frames from the camera, computes flow and publishes
+	 * it as a FlowField, swapping it into the middle of three fields. flow() no longer computes anything: 
+	 * when the worker has published a new field, flow() swaps it with the field it holds and calls the responder, 
+	 * without ever waiting for the worker. getFlow() and getFlowList() read the field taken by the last call to flow(). 
+	 * The responder gets a copy of the frame that field was computed from, never the source's own image. 
+	 * @param async   true to compute flow on a worker thread, false to compute it in flow()
+	 */
+	public void setAsync(boolean async) {
+		if (async == this.async) return;
+		this.async = async;
+		if (async) {
+			if (null != syncField) {
+				// start out with the flow we have
+				fields[front].copyFrom(syncField);
+				current = fields[front];
+				middle.set(middle.get() & 3);
+			}
+			startWorker();
+		}
+		else {
+			stopWorker();
+			// go on from the most recent flow
+			if (null != syncField) {
+				acquire();
+				syncField.copyFrom(current);
+				current = syncField;
+				updateFlowList();
+			}
+		}
+	}
+
+	/**
+	 * @return the flow read by getFlow(), which does not change until the next call to flow()
+	 */
+	public FlowField getFlowField() {
+		return current;
+	}
+
+	// copy current flow into the vectors returned by getFlowList()
+	void updateFlowList() {
+		float[] u = current.u;
+		float[] v = current.v;
+		for (int ig = 0; ig < flowList.length; ig++) {
+			flowList[ig].set(u[ig], v[ig], 0);
+		}
+	}
+
+	/**
+	 * Runs a sweep over all grid rows, in bands on the common pool if parallel is true and the grid is large enough.
+	 * @param sweep   AVERAGE, DIFFERENTIATE, SOLVE or VECTORS
+	 */
+	void runSweep(int sweep) {
+		if (parallel && gh >= minParallel) {
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			// several bands per thread, so that uneven bands even out
+			band = Math.max(1, gh / (4 * pool.getParallelism()));
+			int bands = (gh + band - 1) / band;
+			pool.invoke(new SweepTask(0, bands, sweep));
+		}
+		else {
+			sweep(sweep, 0, gh, scratch);
+		}
+	}
+
+	/**
+	 * Runs a sweep over grid rows iy0..iy1 - 1.
+	 */
+	void sweep(int sweep, int iy0, int iy1, FlowScratch s) {
+		switch (sweep) {
+		case AVERAGE: sweepAverage(iy0, iy1, s); break;
+		case DIFFERENTIATE: sweepDifferentiate(iy0, iy1); break;
+		case SOLVE: sweepSolve(iy0, iy1); break;
+		case VECTORS: sweepVectors(iy0, iy1); break;
+		}
+	}
+
+	// The sweeps walk the grid arrays row by row, in the order they are stored. The first and third
+	// sweeps also split rows into tiles of tileCells columns, so that the rows of the integral image 
+	// and of the derivative arrays that neighbouring cells share stay in cache from one row to the next.
+
+	// 1st sweep: differentiation by time
+	void sweepAverage(int iy0, int iy1, FlowScratch s) {
+		if (null != levels) {
+			sweepAverageShifted(iy0, iy1, s);
+			return;
+		}
+		if (luma) {
+			sweepAverageLuma(iy0, iy1);
+			return;
+		}
+		float[] avg = s.avg;
+		int[] sums = s.sums;
+		for(int tx0 = 0; tx0 < gw; tx0 += tileCells) {
+			int tx1 = Math.min(gw, tx0 + tileCells);
+			for(int iy = iy0; iy < iy1; iy++) {
+				int y0 = iy * gs + gs2;
+				for(int ix = tx0; ix < tx1; ix++) {
 					int ig = iy * gw + ix;
-					// int y0 = iy * gs + gs2;
-					int y0 = ycoords[ig];
+					int x0 = xcoords[ig];
 					// compute average pixel at (x0, y0)
-					pixave(x0 - as, y0 - as, x0 + as, y0 + as);
+					pixave(x0 - as, y0 - as, x0 + as, y0 + as, avg, sums);
 					// compute time difference
-					dtr[ig] = ar - par[ig];         // red
-					dtg[ig] = ag - pag[ig];         // green
-					dtb[ig] = ab - pab[ig];         // blue
+					dtr[ig] = avg[0] - par[ig];         // red
+					dtg[ig] = avg[1] - pag[ig];         // green
+					dtb[ig] = avg[2] - pab[ig];         // blue
 					// save the pixel
-					par[ig]=ar;
-					pag[ig]=ag;
-					pab[ig]=ab;
+					par[ig] = avg[0];
+					pag[ig] = avg[1];
+					pab[ig] = avg[2];
+					if (sparse) {
+						motion[ig] = Math.abs(dtr[ig]) + Math.abs(dtg[ig]) + Math.abs(dtb[ig]);
+					}
 				}
 			}
+		}
+	}
 
-			// 2nd sweep: differentiations by x and y
-			for(int ix = 1; ix < gw - 1; ix++) {
-				for(int iy = 1; iy < gh - 1; iy++) {
+	// 1st sweep in luma mode
+	void sweepAverageLuma(int iy0, int iy1) {
+		for(int tx0 = 0; tx0 < gw; tx0 += tileCells) {
+			int tx1 = Math.min(gw, tx0 + tileCells);
+			for(int iy = iy0; iy < iy1; iy++) {
+				int y0 = iy * gs + gs2;
+				for(int ix = tx0; ix < tx1; ix++) {
+					int ig = iy * gw + ix;
+					int x0 = xcoords[ig];
+					float ave = lumave(x0 - as, y0 - as, x0 + as, y0 + as);
+					dtr[ig] = ave - par[ig];
+					par[ig] = ave;
+					if (sparse) {
+						// comparable to r + g + b in color mode
+						motion[ig] = 3 * Math.abs(dtr[ig]);
+					}
+				}
+			}
+		}
+	}
+
+	// 1st sweep in pyramid mode: the time difference is between the average of this frame at the grid point 
+	// shifted by the flow of levels[0] and the unshifted average of the last frame, and the shifted averages 
+	// are kept in qar, qag and qab for the 2nd sweep
+	void sweepAverageShifted(int iy0, int iy1, FlowScratch s) {
+		float[] avg = s.avg;
+		float[] shifted = s.shifted;
+		int[] sums = s.sums;
+		float[] cx = levels[0].flowx;
+		float[] cy = levels[0].flowy;
+		for(int tx0 = 0; tx0 < gw; tx0 += tileCells) {
+			int tx1 = Math.min(gw, tx0 + tileCells);
+			for(int iy = iy0; iy < iy1; iy++) {
+				int y0 = iy * gs + gs2;
+				for(int ix = tx0; ix < tx1; ix++) {
 					int ig = iy * gw + ix;
-					// compute x difference
-					dxr[ig] = par[ig + 1]-par[ig - 1];      // red
+					int x0 = xcoords[ig];
+					int ip = pyramidParent[ig];
+					// keep the shifted point inside the video, so that its window overlaps it
+					int xs = Math.max(0, Math.min(wscreen - 1, x0 + Math.round(cx[ip])));
+					int ys = Math.max(0, Math.min(hscreen - 1, y0 + Math.round(cy[ip])));
+					if (luma) {
+						avg[0] = lumave(x0 - as, y0 - as, x0 + as, y0 + as);
+						shifted[0] = (xs == x0 && ys == y0) ? avg[0] : lumave(xs - as, ys - as, xs + as, ys + as);
+						dtr[ig] = shifted[0] - par[ig];
+						if (sparse) motion[ig] = 3 * Math.abs(avg[0] - par[ig]);
+						par[ig] = avg[0];
+						qar[ig] = shifted[0];
+						continue;
+					}
+					pixave(x0 - as, y0 - as, x0 + as, y0 + as, avg, sums);
+					if (xs == x0 && ys == y0) {
+						shifted[0] = avg[0];
+						shifted[1] = avg[1];
+						shifted[2] = avg[2];
+					}
+					else {
+						pixave(xs - as, ys - as, xs + as, ys + as, shifted, sums);
+					}
+					dtr[ig] = shifted[0] - par[ig];
+					dtg[ig] = shifted[1] - pag[ig];
+					dtb[ig] = shifted[2] - pab[ig];
+					if (sparse) {
+						// motion is measured without the shift, which would hide it
+						motion[ig] = Math.abs(avg[0] - par[ig]) + Math.abs(avg[1] - pag[ig]) + Math.abs(avg[2] - pab[ig]);
+					}
+					par[ig] = avg[0];
+					pag[ig] = avg[1];
+					pab[ig] = avg[2];
+					qar[ig] = shifted[0];
+					qag[ig] = shifted[1];
+					qab[ig] = shifted[2];
+				}
+			}
+		}
+	}
+
+	// 2nd sweep: differentiations by x and y
+	void sweepDifferentiate(int iy0, int iy1) {
+		iy0 = Math.max(iy0, 1);
+		iy1 = Math.min(iy1, gh - 1);
+		// in pyramid mode, differentiate this frame at the shifted grid points
+		float[] par = this.par, pag = this.pag, pab = this.pab;
+		if (null != levels) {
+			par = qar;
+			pag = qag;
+			pab = qab;
+		}
+		for(int iy = iy0; iy < iy1; iy++) {
+			for(int ix = 1; ix < gw - 1; ix++) {
+				int ig = iy * gw + ix;
+				// compute x difference
+				dxr[ig] = par[ig + 1]-par[ig - 1];      // red, or luma
+				// compute y difference
+				dyr[ig] = par[ig + gw]-par[ig - gw];    // red, or luma
+				if (!luma) {
 					dxg[ig] = pag[ig + 1]-pag[ig - 1];      // green
 					dxb[ig] = pab[ig + 1]-pab[ig - 1];      // blue
-					// compute y difference
-					dyr[ig] = par[ig + gw]-par[ig - gw];    // red
 					dyg[ig] = pag[ig + gw]-pag[ig - gw];    // green
 					dyb[ig] = pab[ig + gw]-pab[ig - gw];    // blue
 				}
+				if (sparse) {
+					// the regression at ig reads time differences from all 9 neighbours
+					boolean moved = false;
+					for(int k = 0; k < 9 && !moved; k++) {
+						moved = motion[ig + next9[k]] > motionThresh;
+					}
+					active[ig] = moved;
+				}
 			}
+		}
+	}
 
-			// 3rd sweep: solving optical flow
-			for(int ix = 1; ix < gw - 1; ix++) {
-				for(int iy = 1; iy < gh - 1; iy++) {
+	// 3rd sweep: solving optical flow
+	void sweepSolve(int iy0, int iy1) {
+		iy0 = Math.max(iy0, 1);
+		iy1 = Math.min(iy1, gh - 1);
+		for(int tx0 = 1; tx0 < gw - 1; tx0 += tileCells) {
+			int tx1 = Math.min(gw - 1, tx0 + tileCells);
+			for(int iy = iy0; iy < iy1; iy++) {
+				for(int ix = tx0; ix < tx1; ix++) {
 					int ig = iy * gw + ix;
-					
-					// prepare vectors fx, fy, ft
-					getnext9(dxr, fx, ig, 0);           // dx red
-					getnext9(dxg, fx, ig, 9);           // dx green
-					getnext9(dxb, fx, ig, 18);          // dx blue
-					getnext9(dyr, fy, ig, 0);           // dy red
-					getnext9(dyg, fy, ig, 9);           // dy green
-					getnext9(dyb, fy, ig, 18);          // dy blue
-					getnext9(dtr, ft, ig, 0);           // dt red
-					getnext9(dtg, ft, ig, 9);           // dt green
-					getnext9(dtb, ft, ig, 18);          // dt blue
-
-					// solve for (flowx, flowy) such that
-					// fx flowx + fy flowy + ft = 0
-					solveflow(ig);
-
+					if (sparse && !active[ig]) {
+						// nothing moved nearby: flow is 0, and the smoothed flow decays towards it
+						flowx[ig] = 0;
+						flowy[ig] = 0;
+					}
+					else if (null == levels) {
+						// solve for (flowx, flowy) such that
+						// fx flowx + fy flowy + ft = 0
+						solveflow(ig);
+					}
+					else {
+						refineflow(ig);
+					}
 					// smoothing
 					sflowx[ig] += (flowx[ig] - sflowx[ig]) * wflow;
 					sflowy[ig] += (flowy[ig] - sflowy[ig]) * wflow;
 				}
 			}
+		}
+	}
 
-			// 4th sweep: calculate and store the vectors
-			if(flagflow) {
-				for(int iy = 0; iy < gh; iy++) {
-					for(int ix = 0; ix < gw; ix++) {
-						int ig = iy * gw + ix;
-						float u = df * sflowx[ig];
-						float v = df * sflowy[ig];
-						// save the vectors
-						flowList[ig] = new PVector(u, v);
-						//if (isFirstSweep) PApplet.print(ig + "  ");
+	// in pyramid mode, solve for the flow remaining after the shift by the flow of levels[0], where that flow is large enough
+	void refineflow(int ig) {
+		int ip = pyramidParent[ig];
+		float cx = levels[0].flowx[ip];
+		float cy = levels[0].flowy[ip];
+		if (cx * cx + cy * cy > refineThresh * refineThresh) {
+			solveflow(ig);
+			// the averages were shifted by whole pixels
+			flowx[ig] += Math.round(cx);
+			flowy[ig] += Math.round(cy);
+		}
+		else {
+			flowx[ig] = cx;
+			flowy[ig] = cy;
+		}
+	}
+
+	// 4th sweep: calculate and store the vectors, in target
+	void sweepVectors(int iy0, int iy1) {
+		float[] tu = target.u;
+		float[] tv = target.v;
+		for(int iy = iy0; iy < iy1; iy++) {
+			for(int ix = 0; ix < gw; ix++) {
+				int ig = iy * gw + ix;
+				// save the vectors
+				tu[ig] = df * sflowx[ig];
+				tv[ig] = df * sflowy[ig];
+			}
+		}
+	}
+
+	/**
+	 * Per-thread scratch storage for the sweeps.
+	 */
+	static class FlowScratch {
+		float[] avg = new float[3];
+		float[] shifted = new float[3];
+		int[] sums = new int[3];
+	}
+
+	/**
+	 * A coarser grid of pyramid mode, which solves for luma flow over the whole frame in one sweep each 
+	 * for averages, derivatives and regression, shifting the current frame by the flow of the next coarser level. 
+	 */
+	static class PyramidLevel {
+		int wscreen;
+		int hscreen;
+		int gs;                 // grid step
+		int as;                 // window size for averaging (-as,...,+as)
+		int gw;
+		int gh;
+		int[] next9;
+		int[] xcoords;
+		int[] ycoords;
+		int[] parent;           // index of the nearest cell of the next coarser level, for each cell
+		float[] prev;           // average luma of the last frame at each grid point
+		float[] shifted;        // average luma of this frame at each grid point, shifted by the coarser flow
+		float[] dt, dx, dy;
+		float[] flowx, flowy;   // flow in video pixels per frame, including the coarser flow
+
+		PyramidLevel(int wscreen, int hscreen, int gs) {
+			this.wscreen = wscreen;
+			this.hscreen = hscreen;
+			this.gs = gs;
+			this.as = gs * 2;
+			this.gw = wscreen / gs;
+			this.gh = hscreen / gs;
+			int n = gw * gh;
+			next9 = new int[] { 0, -1, 1, -gw, gw, -gw - 1, -gw + 1, gw - 1, gw + 1 };
+			xcoords = new int[n];
+			ycoords = new int[n];
+			for (int ig = 0; ig < n; ig++) {
+				xcoords[ig] = (ig % gw) * gs + gs / 2;
+				ycoords[ig] = (ig / gw) * gs + gs / 2;
+			}
+			prev = new float[n];
+			shifted = new float[n];
+			dt = new float[n];
+			dx = new float[n];
+			dy = new float[n];
+			flowx = new float[n];
+			flowy = new float[n];
+		}
+
+		/**
+		 * @return for each point (xs[i], ys[i]), the index of the nearest cell of this level
+		 */
+		int[] nearest(int[] xs, int[] ys) {
+			int[] index = new int[xs.length];
+			for (int i = 0; i < xs.length; i++) {
+				int ix = Math.max(0, Math.min(gw - 1, Math.round((xs[i] - gs / 2) / (float) gs)));
+				int iy = Math.max(0, Math.min(gh - 1, Math.round((ys[i] - gs / 2) / (float) gs)));
+				index[i] = iy * gw + ix;
+			}
+			return index;
+		}
+
+		/**
+		 * @param integral   summed-area tables of this frame
+		 * @param coarser    next coarser level, already computed for this frame, or null
+		 * @param fc         regularization term for the regression
+		 */
+		void compute(IntegralImage integral, PyramidLevel coarser, float fc) {
+			int n = gw * gh;
+			for (int ig = 0; ig < n; ig++) {
+				int x0 = xcoords[ig];
+				int y0 = ycoords[ig];
+				float ave = integral.averageLuma(x0 - as, y0 - as, x0 + as, y0 + as);
+				float q = ave;
+				if (null != coarser) {
+					int ip = parent[ig];
+					int xs = Math.max(0, Math.min(wscreen - 1, x0 + Math.round(coarser.flowx[ip])));
+					int ys = Math.max(0, Math.min(hscreen - 1, y0 + Math.round(coarser.flowy[ip])));
+					if (xs != x0 || ys != y0) q = integral.averageLuma(xs - as, ys - as, xs + as, ys + as);
+				}
+				dt[ig] = q - prev[ig];
+				prev[ig] = ave;
+				shifted[ig] = q;
+			}
+			for (int iy = 1; iy < gh - 1; iy++) {
+				for (int ix = 1; ix < gw - 1; ix++) {
+					int ig = iy * gw + ix;
+					dx[ig] = shifted[ig + 1] - shifted[ig - 1];
+					dy[ig] = shifted[ig + gw] - shifted[ig - gw];
+				}
+			}
+			for (int iy = 1; iy < gh - 1; iy++) {
+				for (int ix = 1; ix < gw - 1; ix++) {
+					int ig = iy * gw + ix;
+					// least squares over the 9 neighbours, as in OpticalFlower.solveflow()
+					float xx = 0, xy = 0, yy = 0, xt = 0, yt = 0;
+					for (int k = 0; k < 9; k++) {
+						int i = ig + next9[k];
+						float fx = dx[i];
+						float fy = dy[i];
+						float ft = dt[i];
+						xx += fx * fx;
+						xy += fx * fy;
+						yy += fy * fy;
+						xt += fx * ft;
+						yt += fy * ft;
+					}
+					float a = xx * yy - xy * xy + fc;
+					float u = yy * xt - xy * yt;
+					float v = xx * yt - xy * xt;
+					flowx[ig] = -2 * gs * u / a;
+					flowy[ig] = -2 * gs * v / a;
+					if (null != coarser) {
+						int ip = parent[ig];
+						flowx[ig] += Math.round(coarser.flowx[ip]);
+						flowy[ig] += Math.round(coarser.flowy[ip]);
 					}
-					//if (isFirstSweep) PApplet.println();
 				}
-				// callback handles drawing
-				responder.vectorCallback(video);
 			}
-			isFirstSweep = false;
-			
-			if (null != responder) responder.actionCallback(video);
 		}
 	}
-	
+
+	/**
+	 * Splits a range of bands of grid rows in half until a single band is left, then sweeps it.
+	 */
+	class SweepTask extends RecursiveAction {
+		int lo, hi;
+		int sweep;
+
+		SweepTask(int lo, int hi, int sweep) {
+			this.lo = lo;
+			this.hi = hi;
+			this.sweep = sweep;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new SweepTask(lo, mid, sweep), new SweepTask(mid, hi, sweep));
+				return;
+			}
+			FlowScratch s = workerScratch.get();
+			if (null == s) {
+				s = new FlowScratch();
+				workerScratch.set(s);
+			}
+			int iy0 = lo * band;
+			sweep(sweep, iy0, Math.min(gh, iy0 + band), s);
+		}
+	}
+
+	/**
+	 * @return true if sweeps run in parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * Grids with fewer than minParallel rows are always swept on the calling thread.
+	 * @param parallel   true if flow() should split its sweeps into bands of grid rows and run them on the common ForkJoinPool
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
 	/**
 	 * @param flowColor the flowColor to set
 	 */
@@ -451,10 +1340,20 @@ public class OpticalFlower {
 	
 	/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * 
 	 * various methods to return vector at specified position
-	 * where possible, we get the vector from array flowList rather than calculating it
+	 * flow comes from the current FlowField and none of these methods allocate: getFlow(int, int), 
+	 * getFlow(PVector) and getGridFlow() return vectors from flowList, which are updated in place
 	 * 
 	 * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 
+	/**
+	 * @param x   display x-coordinate
+	 * @param y   display y-coordinate
+	 * @return    index of the grid cell nearest (x, y), kept one cell away from the edges of the grid
+	 */
+	public int gridIndex(float x, float y) {
+		return gridIndex(Math.round(x), Math.round(y));
+	}
+
 	public int gridIndex(int x, int y) {
 		// find the grid index from display coordinates x and y
 		int ix = PApplet.round((x/vs - gs2)/gs);
@@ -480,18 +1379,70 @@ public class OpticalFlower {
 		return getGridFlow(ig, 0.3f);
 	}
 	
+	/**
+	 * @param ig     index of a grid cell
+	 * @param trim   no longer used: flowList is filled when the grid is initialized
+	 * @return       the flow vector at grid cell ig from flowList, updated in place from frame to frame, not to be modified
+	 */
 	public PVector getGridFlow(int ig, float trim) {
-		// first call may arrive before flowList is initialized
-		if (null == flowList[ig]) {
-			float u = sflowx[ig];
-			float v = sflowy[ig];
-			float a = PApplet.sqrt(u * u + v * v);
-			if (a < trim) return new PVector(0,0);
-			PApplet.println("calculated vector");
-			return new PVector(u/a, v/a);
-		}
-		else {
-			return flowList[ig];
+		return flowList[ig];
+	}
+
+	/**
+	 * Writes the flow at display coordinates (x, y) into out, without allocating.
+	 * @param x     display x-coordinate
+	 * @param y     display y-coordinate
+	 * @param out   caller-owned PVector to receive the flow
+	 * @return      out
+	 */
+	public PVector getFlow(float x, float y, PVector out) {
+		int ig = gridIndex(x, y);
+		out.set(current.u[ig], current.v[ig], 0);
+		return out;
+	}
+
+	/**
+	 * @param ig   index of a grid cell, see gridIndex()
+	 * @return     horizontal component of flow at grid cell ig
+	 */
+	public float getFlowU(int ig) {
+		return current.u[ig];
+	}
+
+	/**
+	 * @param ig   index of a grid cell, see gridIndex()
+	 * @return     vertical component of flow at grid cell ig
+	 */
+	public float getFlowV(int ig) {
+		return current.v[ig];
+	}
+
+	/**
+	 * Samples flow at display coordinates (xs[i], ys[i]) for every i in xs, e.g. for a whole flock.
+	 * @param xs     display x-coordinates
+	 * @param ys     display y-coordinates
+	 * @param outU   receives horizontal components of flow
+	 * @param outV   receives vertical components of flow
+	 */
+	public void sampleFlow(float[] xs, float[] ys, float[] outU, float[] outV) {
+		sampleFlow(xs, ys, xs.length, outU, outV);
+	}
+
+	/**
+	 * Samples flow at display coordinates (xs[i], ys[i]) for i from 0 to n - 1.
+	 * @param xs     display x-coordinates
+	 * @param ys     display y-coordinates
+	 * @param n      number of points to sample
+	 * @param outU   receives horizontal components of flow
+	 * @param outV   receives vertical components of flow
+	 */
+	public void sampleFlow(float[] xs, float[] ys, int n, float[] outU, float[] outV) {
+		float[] u = current.u;
+		float[] v = current.v;
+		for (int i = 0; i < n; i++) {
+			int ig = gridIndex(xs[i], ys[i]);
+			outU[i] = u[ig];
+			outV[i] = v[ig];
 		}
 	}
 	
@@ -543,14 +1494,19 @@ public class OpticalFlower {
 		return flagflow;
 	}
 
+	/**
+	 * @return flow vectors for all grid cells, row by row, updated in place by flow(), not to be modified
+	 */
 	public PVector[] getFlowList() {
 		return flowList;
 	}
 
 	public float getTotalFlowSquareMag() {
+		float[] u = current.u;
+		float[] v = current.v;
 		float sum = 0;
-		for (int i = 0; i < flowList.length; i++) {
-			sum += flowList[i].magSq();
+		for (int i = 0; i < u.length; i++) {
+			sum += u[i] * u[i] + v[i] * v[i];
 		}
 		return sum;
 	}
@@ -591,8 +1547,40 @@ public class OpticalFlower {
 		this.responder = responder;
 	}
 
-	public Capture getVideo() {
-		return this.video;
+	/**
+	 * @return the source's own image of its latest frame, such as the Capture of a camera, or null if it has none
+	 */
+	public PImage getVideo() {
+		if (null == source) return null;
+		return source.getImage();
+	}
+
+	/**
+	 * @return the latest frame, as passed to the responder
+	 */
+	public PImage getImage() {
+		return this.image;
+	}
+
+	/**
+	 * @return the source of video frames
+	 */
+	public FrameSource getSource() {
+		return this.source;
+	}
+
+	/**
+	 * Sets the source of video frames, such as a FileFrameSource or SyntheticFrameSource, 
+	 * in place of the camera named in the video parameters. The size of video is taken from the source. 
+	 * Takes effect at the next call to init(). 
+	 * @param source   a FrameSource, or null to capture video from the camera named in the video parameters
+	 */
+	public void setSource(FrameSource source) {
+		stopWorker();
+		if (ownSource && null != this.source) this.source.stop();
+		this.source = source;
+		this.ownSource = false;
+		this.image = null;
 	}
 	
 	/******** VIDEO PARAMETERS VALIDATION ********/
@@ -601,10 +1589,7 @@ public class OpticalFlower {
 	 * @return   a list of attached video devices and information about each
 	 */
 	public String[] getVideoDevices() {
-		if (null == videoDevices) {
-			videoDevices = Capture.list();
-		}
-		return videoDevices;
+		return CaptureSource.list();
 	}
 
 	/**
@@ -616,22 +1601,7 @@ public class OpticalFlower {
 	 * @return           true if there is a video device that matches the supplied arguments, false otherwise
 	 */
 	public boolean validateVideoParams(int testW, int testH, String testName, int testFps) {
-		String[] devices = getVideoDevices();
-		for (int i = 0; i < devices.length; i++) {
-			String device = devices[i];
-			String[] info = device.split(",");
-			String deviceName = info[0].substring(info[0].indexOf("=") + 1);
-			String dimensions = info[1].substring(info[1].indexOf("=") + 1);
-			String[] coords = dimensions.split("x");
-			int w = Integer.valueOf(coords[0]);
-			int h = Integer.valueOf(coords[1]);
-			String fps = info[2].substring(info[2].indexOf("=") + 1);
-			int framerate = Integer.valueOf(fps);
-			if (w == testW && h == testH && deviceName.equals(testName) && framerate == testFps) {
-				return true;
-			}
-		}
-		return false;
+		return CaptureSource.validate(testW, testH, testName, testFps);
 	}
 	
 	class VideoDevice {
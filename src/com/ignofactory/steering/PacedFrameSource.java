@@ -0,0 +1,121 @@
+package com.ignofactory.steering;
+
+import processing.core.PImage;
+
+/**
+ * Base class for frame sources that can produce any frame by its index, such as files and
+ * generated frames. With a positive frame rate, frames become available in real time, as from a
+ * camera: read() delivers the frame due at the time of the call, skipping any frames the caller
+ * was too slow to read. With a frame rate of 0, every call to available() returns true and read()
+ * delivers consecutive frames as fast as they are asked for, for benchmarks and tests.
+ */
+public abstract class PacedFrameSource implements FrameSource {
+	int width;
+	int height;
+	/** frames per second, 0 to deliver frames as fast as they are read */
+	float fps;
+	int[] pixels;
+	/** index of the last frame read, -1 before the first */
+	long frame = -1;
+	long timestamp;
+	/** System.nanoTime() at start() */
+	long startTime;
+
+	/**
+	 * @param width    width of frames
+	 * @param height   height of frames
+	 * @param fps      frames per second, 0 to deliver frames as fast as they are read
+	 */
+	public PacedFrameSource(int width, int height, float fps) {
+		this.width = width;
+		this.height = height;
+		this.fps = fps;
+		this.pixels = new int[width * height];
+	}
+
+	/**
+	 * Writes frame number index into pixels.
+	 * @param index    index of the frame, from 0
+	 * @param pixels   receives the frame, Processing ARGB colors, row by row
+	 * @return         true if the frame could be produced
+	 */
+	abstract boolean readFrame(long index, int[] pixels);
+
+	public boolean start() {
+		startTime = System.nanoTime();
+		frame = -1;
+		return true;
+	}
+
+	public void stop() {
+	}
+
+	/**
+	 * @return index of the frame due now, or of the next frame if fps is 0
+	 */
+	long dueFrame() {
+		if (fps <= 0) return frame + 1;
+		return (long) ((System.nanoTime() - startTime) * (double) fps / 1000000000L);
+	}
+
+	public boolean available() {
+		return dueFrame() > frame;
+	}
+
+	public boolean read() {
+		long index = Math.max(dueFrame(), frame + 1);
+		if (!readFrame(index, pixels)) return false;
+		frame = index;
+		timestamp = fps > 0 ? (long) (index * 1000 / fps) : (System.nanoTime() - startTime) / 1000000L;
+		return true;
+	}
+
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * @return null: frames are kept in a bare array
+	 */
+	public PImage getImage() {
+		return null;
+	}
+
+	/**
+	 * @return time the last frame is due after start(), in milliseconds, or the time it was read if fps is 0
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return index of the last frame read, -1 before the first
+	 */
+	public long getFrame() {
+		return frame;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return frames per second, 0 if frames are delivered as fast as they are read
+	 */
+	public float getFps() {
+		return fps;
+	}
+
+	/**
+	 * @param fps   frames per second, 0 to deliver frames as fast as they are read
+	 */
+	public void setFps(float fps) {
+		this.fps = fps;
+		// go on from the current frame
+		startTime = System.nanoTime() - (fps > 0 ? (long) ((frame + 1) * 1000000000L / fps) : 0);
+	}
+}
@@ -0,0 +1,89 @@
+package com.ignofactory.steering;
+
+/**
+ * A Flock that calculates steering with a FlockState: each frame the boids' locations, velocities
+ * and flocking parameters are copied into FlockState's arrays, steering for the whole flock is
+ * calculated there, and the resulting acceleration is handed back to each Boid, which then
+ * updates, wraps and renders itself as usual. Boids and TurtleBoids (with their callbacks)
+ * work unchanged, so a sketch can use a StateFlock wherever it uses a Flock.
+ * 
+ * As in FlockState, all boids steer from the same snapshot of the flock, so results do not 
+ * depend on the order of boids in the list. Cohesion lines are not drawn.
+ * When parallel is true, steering is calculated on a ForkJoinPool; updating, wraparound 
+ * (with TurtleBoid callbacks) and rendering still happen one boid at a time on the calling thread.
+ */
+public class StateFlock extends Flock {
+	/** arrays used to calculate steering */
+	FlockState state;
+	/** calculate steering in parallel? */
+	boolean parallel = false;
+	/** distance beyond the largest neighbor radius kept in neighbor lists, 0 for no lists */
+	float neighborSkin = 0;
+
+	public StateFlock() {
+		super();
+	}
+
+	void step(boolean render) {
+		int n = boids.size();
+		if (0 == n) return;
+		Boid first = boids.get(0);
+		if (null == state) {
+			state = new FlockState(first.world, n);
+		}
+		else {
+			state.setWorld(first.world);
+		}
+		state.setMapToTorus(Boid.mapToTorus);
+		state.setUseGrid(useGrid);
+		state.setParallel(parallel);
+		if (state.getNeighborSkin() != neighborSkin) state.setNeighborSkin(neighborSkin);
+		state.load(boids);
+		state.flock();
+		for (int i = 0; i < n; i++) {
+			Boid b = boids.get(i);
+			b.acc.x = state.ax[i];
+			b.acc.y = state.ay[i];
+			b.update();
+			b.borders();
+			if (render) b.render();
+		}
+	}
+
+	/**
+	 * @return true if steering is calculated in parallel
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @param parallel   true if steering should be calculated in parallel on a ForkJoinPool
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return the distance beyond the largest neighbor radius kept in neighbor lists
+	 */
+	public float getNeighborSkin() {
+		return neighborSkin;
+	}
+
+	/**
+	 * Turns on neighbor lists that are reused from frame to frame until some boid has moved
+	 * more than half of neighborSkin. See FlockState.
+	 * @param neighborSkin   distance beyond the largest neighbor radius to keep in neighbor lists, 0 for no lists
+	 */
+	public void setNeighborSkin(float neighborSkin) {
+		this.neighborSkin = neighborSkin;
+	}
+
+	/**
+	 * @return the FlockState used to calculate steering
+	 */
+	public FlockState getState() {
+		return state;
+	}
+}
@@ -0,0 +1,108 @@
+package com.ignofactory.steering;
+
+/**
+ * A FrameSource that generates frames of a smooth colored pattern moving at a known velocity, so
+ * that optical flow can be benchmarked and checked without a camera. By default the whole pattern
+ * moves at (vx, vy) pixels per frame. With setSquare(), the pattern stands still and only a square
+ * cut from it moves, wrapping around the edges of the frame, for scenes that are mostly static.
+ */
+public class SyntheticFrameSource extends PacedFrameSource {
+	/** horizontal velocity of the pattern, pixels per frame */
+	float vx;
+	/** vertical velocity of the pattern, pixels per frame */
+	float vy;
+	/** side of the moving square, 0 to move the whole pattern */
+	int square = 0;
+	/** waves of periods 32, 64, 128 and 256 pixels, -127..127, over 256 entries, so that the pattern has detail at several scales */
+	static final int[][] waves = new int[4][256];
+	static {
+		for (int i = 0; i < 256; i++) {
+			waves[0][i] = (int) Math.round(127 * Math.sin(2 * Math.PI * i / 32));
+			waves[1][i] = (int) Math.round(127 * Math.sin(2 * Math.PI * i / 64));
+			waves[2][i] = (int) Math.round(127 * Math.cos(2 * Math.PI * i / 128));
+			waves[3][i] = (int) Math.round(127 * Math.sin(2 * Math.PI * i / 256));
+		}
+	}
+
+	/**
+	 * @param width    width of frames
+	 * @param height   height of frames
+	 * @param fps      frames per second, 0 to deliver frames as fast as they are read
+	 * @param vx       horizontal velocity of the pattern, pixels per frame
+	 * @param vy       vertical velocity of the pattern, pixels per frame
+	 */
+	public SyntheticFrameSource(int width, int height, float fps, float vx, float vy) {
+		super(width, height, fps);
+		this.vx = vx;
+		this.vy = vy;
+	}
+
+	boolean readFrame(long index, int[] pixels) {
+		int ox = Math.round(index * vx);
+		int oy = Math.round(index * vy);
+		if (square <= 0) {
+			pattern(pixels, ox, oy);
+			return true;
+		}
+		pattern(pixels, 0, 0);
+		// the square starts at the center and carries its own part of the pattern with it, wrapping around the edges
+		int x0 = Math.floorMod((width - square) / 2 + ox, width);
+		int y0 = Math.floorMod((height - square) / 2 + oy, height);
+		for (int sy = 0; sy < square; sy++) {
+			int p = ((y0 + sy) % height) * width;
+			for (int sx = 0; sx < square; sx++) {
+				pixels[p + (x0 + sx) % width] = color(sx + 97, sy + 53);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fills pixels with the pattern, shifted by (ox, oy).
+	 */
+	void pattern(int[] pixels, int ox, int oy) {
+		int p = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				pixels[p++] = color(x - ox, y - oy);
+			}
+		}
+	}
+
+	/**
+	 * @return color of the pattern at (px, py)
+	 */
+	static int color(int px, int py) {
+		int[] wa = waves[0];
+		int[] wb = waves[1];
+		int[] wc = waves[2];
+		int[] wd = waves[3];
+		int r = 128 + ((wb[px & 255] * wb[(py * 2) & 255]) >> 8) + ((wd[px & 255] * wc[py & 255]) >> 8);
+		int g = 128 + ((wa[(px + py) & 255] + wc[(px * 3) & 255]) >> 2) + ((wd[(px + 64) & 255] * wd[py & 255]) >> 8);
+		int b = 128 + ((wc[px & 255] * wc[py & 255]) >> 8) + ((wd[(py - px) & 255] * 127) >> 8);
+		return 0xFF000000 | r << 16 | g << 8 | b;
+	}
+
+	/**
+	 * @param vx   horizontal velocity of the pattern, pixels per frame
+	 * @param vy   vertical velocity of the pattern, pixels per frame
+	 */
+	public void setVelocity(float vx, float vy) {
+		this.vx = vx;
+		this.vy = vy;
+	}
+
+	/**
+	 * @return side of the moving square, 0 if the whole pattern moves
+	 */
+	public int getSquare() {
+		return square;
+	}
+
+	/**
+	 * @param square   side of a square that moves over a still pattern, 0 to move the whole pattern
+	 */
+	public void setSquare(int square) {
+		this.square = Math.min(square, Math.min(width, height));
+	}
+}
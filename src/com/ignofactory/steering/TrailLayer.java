@@ -0,0 +1,142 @@
+package com.ignofactory.steering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import processing.core.PGraphics;
+
+/**
+ * A transparent layer that the current trails of TurtleBoids are drawn into a segment at a time,
+ * so that the cost of displaying trails does not grow with their length. The layer holds only trails
+ * that are still growing: it should start out transparent and be drawn over everything else.
+ * When a trail ends, changes style, or is shown or hidden, refresh() clears where it was and redraws
+ * the trails there, so that a sketch can commit ended trails to its own background, as it would
+ * without a trail layer.
+ *
+ * A TrailLayer belongs to one flock, see Flock.setTrailLayer(), which hands it to its TurtleBoids
+ * and ends drawing into it at the end of Flock.run(). Segments are drawn between one beginDraw()
+ * and one endDraw() per frame, so the layer may be any kind of PGraphics.
+ */
+public class TrailLayer {
+	/** the layer current trails are drawn into */
+	PGraphics layer;
+	/** when not null, marked dirty where the layer changes */
+	LayerCompositor compositor;
+	/** true between the first segment of a frame and endDraw() */
+	boolean drawing = false;
+	/** true if a region of the layer must be cleared and redrawn by refresh() */
+	boolean stale = false;
+	/** bounds of the region of the layer to clear and redraw */
+	float staleLeft, staleTop, staleRight, staleBottom;
+
+	/**
+	 * @param layer        a transparent layer for growing trails
+	 * @param compositor   a LayerCompositor with layer as its top layer, to mark dirty where layer changes, or null
+	 */
+	public TrailLayer(PGraphics layer, LayerCompositor compositor) {
+		this.layer = layer;
+		this.compositor = compositor;
+	}
+
+	/**
+	 * Draws one segment of a trail, starting to draw into the layer if this is the first segment of the frame.
+	 * @param x0       x-coordinate of start of segment
+	 * @param y0       y-coordinate of start of segment
+	 * @param x1       x-coordinate of end of segment
+	 * @param y1       y-coordinate of end of segment
+	 * @param color    stroke color
+	 * @param weight   stroke weight
+	 */
+	void drawSegment(float x0, float y0, float x1, float y1, int color, float weight) {
+		if (!drawing) {
+			layer.beginDraw();
+			drawing = true;
+		}
+		layer.noFill();
+		layer.stroke(color);
+		layer.strokeWeight(weight);
+		layer.line(x0, y0, x1, y1);
+		if (null != compositor) {
+			float pad = weight / 2 + 1;
+			compositor.markDirty(Math.min(x0, x1) - pad, Math.min(y0, y1) - pad,
+					Math.max(x0, x1) + pad, Math.max(y0, y1) + pad);
+		}
+	}
+
+	/**
+	 * Ends drawing into the layer, if any segments were drawn since the last call. Flock.run() calls it
+	 * after the boids are drawn; call it after drawing the boids some other way.
+	 */
+	public void endDraw() {
+		if (!drawing) return;
+		layer.endDraw();
+		drawing = false;
+	}
+
+	/**
+	 * Adds a region of the layer to be cleared and redrawn by refresh().
+	 */
+	void addStaleRegion(float left, float top, float right, float bottom) {
+		if (stale) {
+			staleLeft = Math.min(staleLeft, left);
+			staleTop = Math.min(staleTop, top);
+			staleRight = Math.max(staleRight, right);
+			staleBottom = Math.max(staleBottom, bottom);
+		}
+		else {
+			staleLeft = left;
+			staleTop = top;
+			staleRight = right;
+			staleBottom = bottom;
+			stale = true;
+		}
+	}
+
+	/**
+	 * Marks all of the layer to be cleared and redrawn by refresh(), for when trails end or boids
+	 * are removed without the TurtleBoids knowing, as when a sketch lifts every pen or clears the flock,
+	 * or when the layer is resized.
+	 */
+	public void markStale() {
+		addStaleRegion(0, 0, layer.width, layer.height);
+	}
+
+	/**
+	 * Clears the region of the layer marked stale since the last call and redraws in it, clipped to it, the
+	 * current trails of displayed boids that cross it. Call once a frame, before the layer is composited.
+	 * @param boids   the flock, usually Flock.getBoids()
+	 */
+	public void refresh(ArrayList<Boid> boids) {
+		if (!stale) return;
+		stale = false;
+		int w = layer.width;
+		int h = layer.height;
+		int x0 = Math.max(0, (int) Math.floor(staleLeft));
+		int y0 = Math.max(0, (int) Math.floor(staleTop));
+		int x1 = Math.min(w, (int) Math.ceil(staleRight) + 1);
+		int y1 = Math.min(h, (int) Math.ceil(staleBottom) + 1);
+		if (x1 <= x0 || y1 <= y0) return;
+		endDraw();
+		layer.beginDraw();
+		layer.loadPixels();
+		int[] px = layer.pixels;
+		for (int y = y0; y < y1; y++) {
+			Arrays.fill(px, y * w + x0, y * w + x1, 0);
+		}
+		layer.updatePixels();
+		layer.clip(x0, y0, x1 - x0, y1 - y0);
+		for (Boid boid : boids) {
+			if (boid instanceof TurtleBoid) ((TurtleBoid) boid).redrawTrail(x0, y0, x1, y1);
+		}
+		layer.noClip();
+		layer.endDraw();
+		if (null != compositor) compositor.markDirty(x0, y0, x1, y1);
+	}
+
+	/**
+	 * @return the layer current trails are drawn into
+	 */
+	public PGraphics getLayer() {
+		return layer;
+	}
+}
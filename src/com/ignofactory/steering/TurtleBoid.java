@@ -23,6 +23,18 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	public int id;
 	public float distance;
 	public float maxDistance = -1;
+	/** when not null, the current trail is drawn into this layer a segment at a time instead of redrawn every frame */
+	TrailLayer trails;
+	/** end of the last segment drawn into trails */
+	float trailX, trailY;
+	/** true if trailX and trailY hold the end of a segment of the current trail */
+	boolean hasTrailPoint = false;
+	/** most locations kept between frames, more than a FixedTimestep runs steps per frame */
+	static final int MAX_STEP_POINTS = 64;
+	/** x and y of the locations at each step since the last frame, not yet drawn into trails */
+	float[] stepPoints = new float[2 * MAX_STEP_POINTS];
+	/** number of locations in stepPoints */
+	int stepCount = 0;
 	
 
 	public TurtleBoid(PApplet parent, PVector l, float ms, float mf) {
@@ -40,22 +52,131 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	
 	public void update() {
 		super.update();
+		float speed = vel.mag();
 		turtle.setTurtleAngle(vel);
-		turtle.move(vel.mag());
+		turtle.move(speed);
+		if (null != trails && isDisplaying && turtle.isPenDown() && stepCount < MAX_STEP_POINTS) {
+			// flocks with a fixed timestep run several steps per frame, each adds a segment to the trail
+			stepPoints[2 * stepCount] = loc.x;
+			stepPoints[2 * stepCount + 1] = loc.y;
+			stepCount++;
+		}
 		if (maxDistance > 0) {
-			this.distance += vel.mag();
+			this.distance += speed;
 			testDistance();
 		}
 	}
 	
 	public void render() {
 		super.render();
+		renderTrail();
+	}
+
+	/**
+	 * Draws the boid between its last two locations and its current trail, which ends at the current location.
+	 * @see com.ignofactory.steering.Boid#render(float)
+	 */
+	public void render(float alpha) {
+		super.render(alpha);
+		renderTrail();
+	}
+
+	void renderTrail() {
 		if (isDisplaying && turtle.isPenDown()) {
+			if (null != trails) {
+				renderSegment();
+				return;
+			}
 			turtle.drawCurrent();
 //			if (1 == this.id) {
 //				System.out.println("---- Turtle id 1 is drawing.");
 //			}
 		}
+		else {
+			hasTrailPoint = false;
+			stepCount = 0;
+		}
+	}
+
+	/**
+	 * Draws the part of the current trail added since the last frame into trails, one segment for each
+	 * step, so that the cost of displaying trails does not grow with their length and trails stepped
+	 * several times a frame follow the same path as the turtle.
+	 */
+	void renderSegment() {
+		for (int k = 0; k < stepCount; k++) {
+			addTrailPoint(stepPoints[2 * k], stepPoints[2 * k + 1]);
+		}
+		stepCount = 0;
+		addTrailPoint(loc.x, loc.y);
+	}
+
+	/**
+	 * Draws a segment from the end of the last segment to (x, y), unless (x, y) is the end of the last segment.
+	 */
+	void addTrailPoint(float x, float y) {
+		if (hasTrailPoint) {
+			if (x == trailX && y == trailY) return;
+			if (turtle.hasStroke()) trails.drawSegment(trailX, trailY, x, y, turtle.strokeColor(), turtle.weight());
+		}
+		trailX = x;
+		trailY = y;
+		hasTrailPoint = true;
+	}
+
+	/**
+	 * Marks the region of trails the current trail covers to be cleared and redrawn by TrailLayer.refresh(), 
+	 * when the trail ends, changes style, or is shown or hidden. Strokes can't be taken back out of the layer, 
+	 * and drawing the trail again over itself would darken strokes with alpha and keep the old style at the edges.
+	 */
+	void markTrailStale() {
+		hasTrailPoint = false;
+		stepCount = 0;
+		if (null == trails || !isDisplaying || !turtle.isPenDown()) return;
+		BezShape trail = turtle.getCurrentTrail();
+		if (null == trail) return;
+		BezRectangle r = trail.boundsRect();
+		float pad = trail.weight() / 2 + 1;
+		trails.addStaleRegion(r.getLeft() - pad, r.getTop() - pad, r.getRight() + pad, r.getBottom() + pad);
+	}
+
+	/**
+	 * Redraws the current trail into trails, if it is displayed and crosses the given region,
+	 * for TrailLayer.refresh(), which has cleared the region and clipped drawing to it.
+	 */
+	void redrawTrail(int x0, int y0, int x1, int y1) {
+		if (!isDisplaying || !turtle.isPenDown()) return;
+		BezShape trail = turtle.getCurrentTrail();
+		if (null == trail) return;
+		BezRectangle r = trail.boundsRect();
+		float pad = trail.weight() / 2 + 1;
+		if (r.getRight() + pad < x0 || r.getLeft() - pad > x1 || r.getBottom() + pad < y0 || r.getTop() - pad > y1) return;
+		trail.draw(trails.getLayer());
+		// the trail ends at the turtle, which is at the boid's location
+		trailX = loc.x;
+		trailY = loc.y;
+		hasTrailPoint = true;
+		stepCount = 0;
+	}
+
+	/**
+	 * @return the layer the current trail is drawn into a segment at a time, or null if it is redrawn every frame
+	 */
+	public TrailLayer getTrailLayer() {
+		return trails;
+	}
+
+	/**
+	 * Turns incremental trail drawing on or off, usually for a whole flock with Flock.setTrailLayer().
+	 * When it is on, each frame adds only the newest segments of the current trail to trails, 
+	 * which persists between frames, instead of redrawing the whole current trail on the display.
+	 * @param trails   a TrailLayer, or null to redraw the current trail every frame
+	 */
+	public void setTrailLayer(TrailLayer trails) {
+		if (trails == this.trails) return;
+		this.trails = trails;
+		hasTrailPoint = false;
+		stepCount = 0;
 	}
 	
 	// Wraparound with drawing and callback
@@ -66,28 +187,32 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	void borders() {
 		boolean isDrawing = turtle.isPenDown();
 		if (loc.x < -r) {
-			loc.x = parent.width + r;
+			loc.x = world.width + r;
+			markTrailStale();
 			turtle.penUp();
 			turtle.setTurtleX(loc.x);
 			if (isDrawing) turtle.penDown();
 			if (null != responder) responder.callback(this);
 		}
 		if (loc.y < -r) {
-			loc.y = parent.height + r;
+			loc.y = world.height + r;
+			markTrailStale();
 			turtle.penUp();
 			turtle.setTurtleY(loc.y);
 			if (isDrawing) turtle.penDown();
 			if (null != responder) responder.callback(this);
 		}
-		if (loc.x > parent.width + r) {
+		if (loc.x > world.width + r) {
 			loc.x = -r;
+			markTrailStale();
 			turtle.penUp();
 			turtle.setTurtleX(loc.x);
 			if (isDrawing) turtle.penDown();
 			if (null != responder) responder.callback(this);
 		}
-		if (loc.y > parent.height + r) {
+		if (loc.y > world.height + r) {
 			loc.y = -r;
+			markTrailStale();
 			turtle.penUp();
 			turtle.setTurtleY(loc.y);
 			if (isDrawing) turtle.penDown();
@@ -106,14 +231,18 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	 * @param isDisplaying the isDisplaying to set
 	 */
 	public void setDisplaying(boolean isDisplaying) {
+		if (isDisplaying == this.isDisplaying) return;
+		// the trail leaves or joins the trail layer
+		if (this.isDisplaying) markTrailStale();
 		this.isDisplaying = isDisplaying;
+		if (isDisplaying) markTrailStale();
 	}
 
 	/**
 	 * sets isDisplaying to inverse boolean value
 	 */
 	public void toggleDisplaying() {
-		this.isDisplaying = !this.isDisplaying;
+		setDisplaying(!this.isDisplaying);
 	}
 
 	/**
@@ -154,8 +283,10 @@ public class TurtleBoid extends Boid implements ColorableINF {
 		if (maxDistance <= 0) return;
 		if (this.distance > maxDistance) {
 			if (this.turtle.isPenDown()) {
+				markTrailStale();
 				this.turtle.penUp();
 			}
+			hasTrailPoint = false;
 			// else this.turtle.penDown();
 			if (null != responder) responder.callback(this);
 			resetDistance();
@@ -238,6 +369,7 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	 */
 	public void setStrokeColor(int newColor) {
 		turtle.setStrokeColor(newColor);
+		markTrailStale();
 	}
 
 	/**
@@ -246,6 +378,7 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	 */
 	public void setNoStroke() {
 		turtle.setNoStroke();
+		markTrailStale();
 	}
 
 	/**
@@ -262,6 +395,7 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	 */
 	public void setStrokeOpacity(int opacity) {
 		turtle.setStrokeOpacity(opacity);
+		markTrailStale();
 	}
 
 	/**
@@ -277,7 +411,10 @@ public class TurtleBoid extends Boid implements ColorableINF {
 	 * @see net.paulhertz.aifile.Turtle#setWeight(float)
 	 */
 	public void setWeight(float newWeight) {
+		// the region of the old strokes, then of the new ones
+		markTrailStale();
 		turtle.setWeight(newWeight);
+		markTrailStale();
 	}
 
 	/**
@@ -1,20 +1,20 @@
 package com.ignofactory.steering;
 
-import processing.video.Capture;
+import processing.core.PImage;
 
 public interface VideoCallbackINF {
 	/**
-	 * @param video   a Capture instance
+	 * @param video   the latest video frame, a Capture instance when frames come from a camera
 	 */
-	public void videoCallback(Capture video);
+	public void videoCallback(PImage video);
 	/**
-	 * @param video   a Capture instance
+	 * @param video   the latest video frame, a Capture instance when frames come from a camera
 	 */
-	public void vectorCallback(Capture video);
+	public void vectorCallback(PImage video);
 	/**
-	 * @param video   a Capture instance
+	 * @param video   the latest video frame, a Capture instance when frames come from a camera
 	 */
-	public void actionCallback(Capture video);
+	public void actionCallback(PImage video);
 }
 
 
@@ -0,0 +1,102 @@
+package com.ignofactory.steering;
+
+import processing.core.*;
+
+/**
+ * Prepares video frames for drawing under the flock: scales a frame to the display with nearest-neighbor
+ * sampling and sets its alpha in the same pass, writing into a PImage of display size that is allocated
+ * once and reused. Replaces the copy of each frame (video.get()), a pass that set alpha pixel by pixel
+ * and a scaled image() call, so drawing the video creates no garbage and only one full-frame pass.
+ *
+ * Draw the result at its own size, image(overlay.update(video), 0, 0), so the renderer does not scale it again.
+ * The work is done by ImageUtil.scale(), which splits rows of large images into parallel bands when parallel is true.
+ */
+public class VideoOverlay {
+	PApplet parent;
+	/** alpha of the video, 0..255 */
+	int alpha;
+	/** display-sized image the video is scaled into */
+	PImage image;
+	/** width of the display image */
+	int width;
+	/** height of the display image */
+	int height;
+	/** true to let ImageUtil split large images into parallel bands */
+	boolean parallel = false;
+
+	/**
+	 * @param parent   the PApplet instance
+	 * @param width    width of the display image, usually the width of the display
+	 * @param height   height of the display image, usually the height of the display
+	 * @param alpha    alpha of the video, 0..255
+	 */
+	public VideoOverlay(PApplet parent, int width, int height, int alpha) {
+		this.parent = parent;
+		this.alpha = alpha;
+		setSize(width, height);
+	}
+
+	/**
+	 * Scales a video frame into the display image and sets its alpha.
+	 * @param video   a video frame, with its pixels loaded
+	 * @return        the display image, overwritten at the next call
+	 */
+	public PImage update(PImage video) {
+		image.loadPixels();
+		if (parallel) {
+			ImageUtil.scale(video.pixels, video.width, video.height, image.pixels, width, height, alpha);
+		}
+		else {
+			ImageUtil.scaleRows(video.pixels, video.width, video.height, image.pixels, width, height, alpha, 0, height);
+		}
+		image.updatePixels();
+		return image;
+	}
+
+	/**
+	 * Sets the size of the display image, reallocating it only if the size changed.
+	 * @param width    width of the display image
+	 * @param height   height of the display image
+	 */
+	public void setSize(int width, int height) {
+		if (null != image && width == this.width && height == this.height) return;
+		this.width = width;
+		this.height = height;
+		image = parent.createImage(width, height, PApplet.ARGB);
+	}
+
+	/**
+	 * @return the display image, as of the last call to update()
+	 */
+	public PImage getImage() {
+		return image;
+	}
+
+	/**
+	 * @return alpha of the video, 0..255
+	 */
+	public int getAlpha() {
+		return alpha;
+	}
+
+	/**
+	 * @param alpha   alpha of the video, 0..255
+	 */
+	public void setAlpha(int alpha) {
+		this.alpha = alpha & 0xFF;
+	}
+
+	/**
+	 * @return true if large images are blitted in parallel bands
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @param parallel   true to blit large images in parallel bands of rows, see ImageUtil.setParallel()
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+}
@@ -0,0 +1,127 @@
+package com.ignofactory.steering;
+
+/**
+ * The rectangle boids live in, with no dependency on Processing, so that flocks can be stepped
+ * without a display. Provides the "nearest point on a torus" mapping that boids use when their
+ * world wraps around at the edges.
+ */
+public class WorldBounds {
+	float width;
+	float height;
+	// vars for calculating distances on torus
+	float halfW;
+	float halfH;
+
+	/**
+	 * @param width    width of the world, usually the width of the display
+	 * @param height   height of the world, usually the height of the display
+	 */
+	public WorldBounds(float width, float height) {
+		setSize(width, height);
+	}
+
+	/**
+	 * @param width    width of the world
+	 * @param height   height of the world
+	 */
+	public void setSize(float width, float height) {
+		this.width = width;
+		this.height = height;
+		this.halfW = width / 2.0f;
+		this.halfH = height / 2.0f;
+	}
+
+	/**
+	 * Finds the image of (mx, my) on a torus the size of the world that is nearest to (x, y)
+	 * and writes its coordinates into out.
+	 * @param x     x-coordinate of reference point
+	 * @param y     y-coordinate of reference point
+	 * @param mx    x-coordinate of point to map
+	 * @param my    y-coordinate of point to map
+	 * @param out   caller-owned array of at least 2 floats, receives {x, y} of the nearest image
+	 * @return      the outcode, 5 if the point is not shifted, 1..9 for the position of the image,
+	 *              in columns from left to right, rows from top to bottom
+	 */
+	public int torusPoint(float x, float y, float mx, float my, float[] out) {
+		int outcode;
+		float left = x - halfW;
+		float right = x + halfW;
+		float top = y - halfH;
+		float bottom = y + halfH;
+		float w = width;
+		float h = height;
+		  if (mx < left ) {
+			  mx += w;
+			  if (my < top) {
+				  outcode = 1;
+				  my += h;
+			  }
+			  else if (my > bottom) {
+				  outcode = 3;
+				  my -= h;
+			  }
+			  else {
+				  outcode = 2;
+			  }
+		  }
+		  else if (mx > right) {
+			  mx -= w;
+			  if (my < top) {
+				  outcode = 7;
+				  my += h;
+			  }
+			  else if (my > bottom) {
+				  outcode = 9;
+				  my -= h;
+			  }
+			  else {
+				  outcode = 8;
+			  }
+		  }
+		  else {
+			  if (my < top) {
+				  outcode = 4;
+				  my += h;
+			  }
+			  else if (my > bottom) {
+				  outcode = 6;
+				  my -= h;
+			  }
+			  else {
+				  outcode = 5;
+			  }
+		  }
+		  out[0] = mx;
+		  out[1] = my;
+		  return outcode;
+	}
+
+	/**
+	 * @return the width
+	 */
+	public float getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height
+	 */
+	public float getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return half the width
+	 */
+	public float getHalfWidth() {
+		return halfW;
+	}
+
+	/**
+	 * @return half the height
+	 */
+	public float getHalfHeight() {
+		return halfH;
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.ignofactory.steering;
+
+/**
+ * Checks that FlockForces applies the latest published forces before every step until new ones
+ * are published, and reuses its arrays from frame to frame.
+ */
+public class FlockForcesTest {
+
+	public static void main(String[] args) {
+		FlockState state = new FlockState(new WorldBounds(640, 480), 2);
+		state.add(100, 100, 0, 0, 3, 0.05f);
+		state.add(300, 100, 0, 0, 3, 0.05f);
+		FlockForces forces = new FlockForces(state);
+		// nothing published yet
+		forces.run();
+		check(0 == state.ax[0] && 0 == state.ay[0], "no forces before the first publish");
+		forces.begin(2);
+		forces.addForce(0, 1, 0);
+		forces.addForce(0, 1, 0);
+		forces.avoid(1, 310, 100, 1);
+		forces.publish();
+		forces.run();
+		check(2 == state.ax[0] && 0 == state.ay[0], "force added twice is applied once per run");
+		check(state.ax[1] < 0, "boid 1 steers away from the point");
+		forces.run();
+		check(4 == state.ax[0], "forces are applied again until new ones are published");
+		float[][] arrays = new float[3][];
+		for (int frame = 0; frame < 9; frame++) {
+			forces.begin(2);
+			forces.addForce(1, 0, 1);
+			forces.publish();
+			// the sets the animation thread fills have grown to fit the flock by now
+			if (2 == frame) {
+				for (int k = 0; k < 3; k++) arrays[k] = forces.slots[k].force;
+			}
+		}
+		for (int k = 0; k < 3; k++) {
+			check(arrays[k] == forces.slots[k].force, "arrays are reused from frame to frame");
+		}
+		state.ax[0] = state.ay[1] = 0;
+		forces.run();
+		check(0 == state.ax[0] && 1 == state.ay[1], "run applies the newest forces");
+		System.out.println("FlockForcesTest passed");
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) throw new AssertionError(what);
+	}
+}
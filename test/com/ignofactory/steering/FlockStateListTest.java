@@ -0,0 +1,79 @@
+package com.ignofactory.steering;
+
+import java.util.Random;
+
+/**
+ * Checks that Verlet neighbor lists are not reused after remove() and add() bring the flock back
+ * to the number of boids the lists were built for, and that a flock with lists still moves as the
+ * same flock without them, which finds neighbors from scratch every frame.
+ */
+public class FlockStateListTest {
+
+	public static void main(String[] args) {
+		FlockState listed = makeFlock(40);
+		FlockState plain = makeFlock(0);
+		for (int i = 0; i < 5; i++) {
+			listed.step();
+			plain.step();
+		}
+		same(listed, plain, "before remove");
+		// the last boid moves into slot 3 and a copy of boid 3 takes the last slot, then the last boid
+		// is replaced by a copy of itself, which leaves every boid where the lists expect it to be:
+		// only remove() and add() can tell that the lists are out of date
+		removeAndAdd(listed, 3);
+		removeAndAdd(plain, 3);
+		listed.step();
+		plain.step();
+		removeAndAdd(listed, listed.size() - 1);
+		removeAndAdd(plain, plain.size() - 1);
+		int rebuilds = listed.getListRebuilds();
+		listed.step();
+		plain.step();
+		check(listed.getListRebuilds() == rebuilds + 1, "lists were rebuilt after remove and add");
+		for (int i = 0; i < 5; i++) {
+			listed.step();
+			plain.step();
+		}
+		same(listed, plain, "after remove and add");
+		System.out.println("FlockStateListTest passed");
+	}
+
+	static void removeAndAdd(FlockState state, int i) {
+		float px = state.getX(i);
+		float py = state.getY(i);
+		float pvx = state.getVx(i);
+		float pvy = state.getVy(i);
+		state.remove(i);
+		state.add(px, py, pvx, pvy, 3, 0.05f);
+	}
+
+	/**
+	 * @param skin   neighbor skin, 0 for no lists
+	 * @return       a dense flock of 200 boids around the middle of a 640 x 480 world
+	 */
+	static FlockState makeFlock(float skin) {
+		FlockState state = new FlockState(new WorldBounds(640, 480), 200);
+		state.setNeighborSkin(skin);
+		Random rand = new Random(7);
+		for (int i = 0; i < 200; i++) {
+			state.add(320 + (float) rand.nextGaussian() * 40, 240 + (float) rand.nextGaussian() * 40,
+					rand.nextFloat() * 2 - 1, rand.nextFloat() * 2 - 1, 3, 0.05f);
+		}
+		return state;
+	}
+
+	/**
+	 * Lists and grid sum neighbors in different orders, so locations may differ by rounding.
+	 */
+	static void same(FlockState a, FlockState b, String when) {
+		check(a.size() == b.size(), "same number of boids "+ when);
+		for (int i = 0; i < a.size(); i++) {
+			check(Math.abs(a.getX(i) - b.getX(i)) < 0.001f && Math.abs(a.getY(i) - b.getY(i)) < 0.001f,
+					"boid "+ i +" in the same place "+ when);
+		}
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) throw new AssertionError(what);
+	}
+}
@@ -0,0 +1,36 @@
+package com.ignofactory.steering;
+
+import java.util.Random;
+
+import processing.core.PVector;
+
+/**
+ * Checks that the boids of a flock share one world, so that resizing it after the boids were
+ * created moves the edges where every boid wraps around.
+ */
+public class FlockWorldTest {
+
+	public static void main(String[] args) {
+		Flock flock = new Flock();
+		Random rand = new Random(7);
+		// each boid starts with a world of its own, as boids made with a PApplet do
+		for (int i = 0; i < 20; i++) {
+			PVector loc = new PVector(rand.nextFloat() * 640, rand.nextFloat() * 480);
+			flock.addBoid(new Boid(new WorldBounds(640, 480), rand, loc, 3, 0.05f));
+		}
+		flock.setWorldSize(320, 240);
+		for (Boid b : flock.getBoids()) {
+			check(b.getWorld() == flock.getWorld(), "boid shares the flock's world");
+		}
+		// past the new right edge, but well inside the old one
+		Boid b = flock.getBoids().get(0);
+		b.loc.set(400, 120, 0);
+		flock.run();
+		check(b.loc.x < 0, "boid wraps at the new right edge");
+		System.out.println("FlockWorldTest passed");
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) throw new AssertionError(what);
+	}
+}
@@ -0,0 +1,55 @@
+package com.ignofactory.steering;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * Checks that pyramid mode works when the number of levels is set before init(), and that
+ * a later init() with a different grid maps each grid cell to a cell of the new coarser level.
+ * Run its main() with the steering classes on the classpath: frames come from a SyntheticFrameSource, so no camera is needed.
+ */
+public class OpticalFlowerPyramidTest {
+
+	public static void main(String[] args) {
+		PApplet parent = new PApplet();
+		parent.width = 640;
+		parent.height = 360;
+		OpticalFlower flower = new OpticalFlower(parent, 0, 0, 30, 8, 0.25f, "none");
+		flower.setResponder(new VideoCallbackINF() {
+			public void videoCallback(PImage video) {}
+			public void vectorCallback(PImage video) {}
+			public void actionCallback(PImage video) {}
+		});
+		flower.setPyramidLevels(3);
+		flower.setSource(new SyntheticFrameSource(640, 360, 0, 4, 2));
+		check(flower.init(), "init() with pyramid levels set first");
+		checkParents(flower);
+		for (int i = 0; i < 10; i++) flower.flow();
+		// a smaller frame gives a smaller grid
+		flower.setSource(new SyntheticFrameSource(320, 240, 0, 4, 2));
+		check(flower.init(), "init() with a different grid");
+		checkParents(flower);
+		for (int i = 0; i < 10; i++) flower.flow();
+		System.out.println("OpticalFlowerPyramidTest passed");
+	}
+
+	/**
+	 * Each grid cell must map to the cell of the first coarser level nearest its own grid point.
+	 */
+	static void checkParents(OpticalFlower flower) {
+		check(null != flower.levels, "pyramid levels were built");
+		OpticalFlower.PyramidLevel level = flower.levels[0];
+		int n = flower.getGw() * flower.getGh();
+		check(flower.pyramidParent.length == n, "one parent per grid cell");
+		for (int i = 0; i < n; i++) {
+			int p = flower.pyramidParent[i];
+			check(p >= 0 && p < level.gw * level.gh, "parent of cell "+ i +" is on the coarser level");
+			check(Math.abs(level.xcoords[p] - flower.xcoords[i]) <= level.gs
+					&& Math.abs(level.ycoords[p] - flower.ycoords[i]) <= level.gs, "parent of cell "+ i +" is near it");
+		}
+	}
+
+	static void check(boolean condition, String what) {
+		if (!condition) throw new AssertionError(what);
+	}
+}